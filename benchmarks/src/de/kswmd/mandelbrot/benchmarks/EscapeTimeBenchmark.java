@@ -0,0 +1,112 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 Kai.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.mandelbrot.benchmarks;
+
+import de.kswmd.mandelbrot.render.DoubleDoubleEscapeTime;
+import de.kswmd.mandelbrot.render.EscapeTime;
+import de.kswmd.mandelbrot.render.IterationBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to compute the escape time of a single point with the double and the
+ * double-double kernel. The points cover the typical cases of a frame:
+ * <ul>
+ * <li>cardioid: inside the main cardioid, recognized without iterating</li>
+ * <li>bulb: inside the period-3 bulb, found by the cycle detection</li>
+ * <li>boundary: just outside the cusp of the cardioid, escapes after
+ * several hundred iterations</li>
+ * <li>escape: far outside, escapes after a few iterations</li>
+ * </ul>
+ *
+ * @author Kai
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EscapeTimeBenchmark {
+
+    @Param({"cardioid", "bulb", "boundary", "escape"})
+    public String point;
+
+    @Param({"1000", "100000"})
+    public int maxiterations;
+
+    private double real;
+    private double imag;
+    private final IterationBuffer buffer = new IterationBuffer(1, 1);
+
+    @Setup
+    public void setUp() {
+        switch (point) {
+            case "cardioid":
+                real = -0.2;
+                imag = 0.1;
+                break;
+            case "bulb":
+                real = -0.122;
+                imag = 0.745;
+                break;
+            case "boundary":
+                real = 0.2501;
+                imag = 0;
+                break;
+            case "escape":
+                real = 1;
+                imag = 1;
+                break;
+            default:
+                throw new IllegalArgumentException("unknown point " + point);
+        }
+    }
+
+    @Benchmark
+    public int iters() {
+        return EscapeTime.iters(real, imag, maxiterations);
+    }
+
+    @Benchmark
+    public int iterateIntoBuffer() {
+        EscapeTime.iterate(real, imag, maxiterations, buffer, 0);
+        return buffer.iterations[0];
+    }
+
+    @Benchmark
+    public int doubleDouble() {
+        return DoubleDoubleEscapeTime.iterate(real, 0, 0, imag, 0, 0, maxiterations, buffer, 0);
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 Kai.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.mandelbrot.benchmarks;
+
+import de.kswmd.mandelbrot.render.IterationBuffer;
+import de.kswmd.mandelbrot.render.MandelbrotRenderer;
+import de.kswmd.mandelbrot.render.MandelbrotView;
+import de.kswmd.mandelbrot.render.Palette;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to color a computed 1280x720 frame with a palette on one thread, with
+ * and without smooth coloring, and to count its histogram and equalize the
+ * palette for it. Coloring must not allocate, which the GC profiler shows.
+ *
+ * @author Kai
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PaletteBenchmark {
+
+    @Param({"false", "true"})
+    public boolean smooth;
+
+    private IterationBuffer buffer;
+    private Palette palette;
+    private int[] pixels;
+    private int[] counts;
+
+    @Setup
+    public void setUp() {
+        MandelbrotView view = new MandelbrotView(1280, 720, -0.7436438870371587, 0.1318259042053119, 2000, 5000, 0x3366CCFF, false);
+        buffer = new IterationBuffer(view.width, view.height);
+        pixels = new int[view.width * view.height];
+        MandelbrotRenderer renderer = new MandelbrotRenderer(1);
+        renderer.render(view, buffer, pixels);
+        renderer.dispose();
+        palette = new Palette(view.colorRGBA, view.maxiterations);
+        counts = new int[view.maxiterations];
+    }
+
+    @Benchmark
+    public int[] color() {
+        palette.color(buffer, pixels, 0, pixels.length, smooth);
+        return pixels;
+    }
+
+    @Benchmark
+    public Palette equalize() {
+        Arrays.fill(counts, 0);
+        palette.count(buffer, 0, pixels.length, counts);
+        return palette.equalize(counts);
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 Kai.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.mandelbrot.benchmarks;
+
+import de.kswmd.mandelbrot.render.IterationBuffer;
+import de.kswmd.mandelbrot.render.MandelbrotRenderer;
+import de.kswmd.mandelbrot.render.MandelbrotView;
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to render a whole frame of 1280x720 pixels with a blocking render at
+ * several thread counts. The views cover every precision of the renderer:
+ * <ul>
+ * <li>home: the view the application starts with</li>
+ * <li>seahorse: the seahorse valley at a zoom of 1e5 with doubles</li>
+ * <li>doubledouble: the same point at a zoom of 1e13 with double-double and
+ * only 500 iterations, since it is far slower</li>
+ * <li>perturbation: a minibrot near -1.75 at a zoom of 1e20</li>
+ * </ul>
+ * The reference orbit of the perturbation view is computed by the first
+ * invocation and reused by the others, like the bands of an export.
+ *
+ * @author Kai
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RenderBenchmark {
+
+    static final int WIDTH = 1280;
+    static final int HEIGHT = 720;
+
+    @Param({"home", "seahorse", "doubledouble", "perturbation"})
+    public String view;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    @Param({"false", "true"})
+    public boolean subdivision;
+
+    private MandelbrotRenderer renderer;
+    private MandelbrotView mandelbrotView;
+    private final IterationBuffer iterations = new IterationBuffer(WIDTH, HEIGHT);
+    private final int[] pixels = new int[WIDTH * HEIGHT];
+
+    @Setup
+    public void setUp() {
+        renderer = new MandelbrotRenderer(threads);
+        renderer.setSubdivision(subdivision);
+        mandelbrotView = view(view);
+    }
+
+    @TearDown
+    public void tearDown() {
+        renderer.dispose();
+    }
+
+    static MandelbrotView view(String name) {
+        switch (name) {
+            case "home":
+                return new MandelbrotView(WIDTH, HEIGHT, 0, 0, 1, 1000, 0xaaaaaaFF, false);
+            case "seahorse":
+                return new MandelbrotView(WIDTH, HEIGHT, new BigDecimal("-0.7436438870371587"), new BigDecimal("0.1318259042053119"), 1e5, 2000, 0xaaaaaaFF, false);
+            case "doubledouble":
+                return new MandelbrotView(WIDTH, HEIGHT, new BigDecimal("-0.743643887037158704752191506114774"), new BigDecimal("0.131825904205311970493132056385139"), 1e13, 500, 0xaaaaaaFF, false);
+            case "perturbation":
+                return new MandelbrotView(WIDTH, HEIGHT, new BigDecimal("-1.7499576837060935036022145060706997072711057972625207793024283782028600808"),
+                        new BigDecimal("1E-55"), 1e20, 3000, 0xaaaaaaFF, false);
+            default:
+                throw new IllegalArgumentException("unknown view " + name);
+        }
+    }
+
+    @Benchmark
+    public IterationBuffer render() {
+        renderer.render(mandelbrotView, iterations, pixels);
+        return iterations;
+    }
+}
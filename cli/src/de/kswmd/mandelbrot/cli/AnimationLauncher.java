@@ -0,0 +1,306 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 Kai.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.mandelbrot.cli;
+
+import de.kswmd.mandelbrot.render.IterationBuffer;
+import de.kswmd.mandelbrot.render.MandelbrotRenderer;
+import de.kswmd.mandelbrot.render.MandelbrotView;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.zip.Deflater;
+
+/**
+ * Renders a zoom into a target point as a numbered sequence of PNG files
+ * without a display. The target stays at the same pixel in every frame while
+ * the zoom grows by the same factor from frame to frame. The factor is
+ * rounded, so that the zoom doubles after a whole number of frames: these
+ * frames are keyframes for each other. Every second pixel in both directions
+ * of a frame shows a point of the frame one doubling before, so a quarter of
+ * the pixels is copied from it instead of being computed. Only the central
+ * part of each frame which the next keyframe needs is kept.
+ * <p>
+ * Frames are computed one after the other with all render threads, while the
+ * finished frames are compressed in parallel.
+ *
+ * @author Kai
+ */
+public final class AnimationLauncher {
+
+    static final String USAGE = "usage: animate --output PATTERN [--width PIXELS] [--height PIXELS] [--x REAL] [--y IMAG]\n"
+            + "               [--zoom ZOOM] [--target-x REAL] [--target-y IMAG] [--rate FACTOR] [--frames N]\n"
+            + "               [--iterations N] [--color RRGGBBAA] [--threads N] [--compression 0-9]\n"
+            + "PATTERN is a format like frames/frame-%05d.png which gets the number of the frame.";
+
+    private AnimationLauncher() {
+    }
+
+    public static void main(String[] args) {
+        try {
+            animate(ExportLauncher.parse(args));
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        } catch (IOException | ExecutionException ex) {
+            ex.printStackTrace();
+            System.exit(1);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            System.exit(1);
+        }
+    }
+
+    static void animate(Map<String, String> options) throws IOException, InterruptedException, ExecutionException {
+        String output = options.remove("output");
+        int width = Integer.parseInt(options.getOrDefault("width", "1920"));
+        int height = Integer.parseInt(options.getOrDefault("height", "1080"));
+        BigDecimal x = new BigDecimal(options.getOrDefault("x", "0"));
+        BigDecimal y = new BigDecimal(options.getOrDefault("y", "0"));
+        double zoom = Double.parseDouble(options.getOrDefault("zoom", "1"));
+        BigDecimal targetX = new BigDecimal(options.getOrDefault("target-x", x.toString()));
+        BigDecimal targetY = new BigDecimal(options.getOrDefault("target-y", y.toString()));
+        double rate = Double.parseDouble(options.getOrDefault("rate", "1.05"));
+        int frames = Integer.parseInt(options.getOrDefault("frames", "100"));
+        int iterations = Integer.parseInt(options.getOrDefault("iterations", "1000"));
+        int color = (int) Long.parseLong(options.getOrDefault("color", "aaaaaaFF"), 16);
+        int threads = Integer.parseInt(options.getOrDefault("threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+        int compression = Integer.parseInt(options.getOrDefault("compression", String.valueOf(Deflater.DEFAULT_COMPRESSION)));
+        for (String name : new String[]{"width", "height", "x", "y", "zoom", "target-x", "target-y", "rate", "frames", "iterations", "color", "threads", "compression"}) {
+            options.remove(name);
+        }
+        if (!options.isEmpty()) {
+            throw new IllegalArgumentException("unknown options " + options.keySet());
+        }
+        if (width < 2 || height < 2 || zoom < 1 || frames < 1 || iterations < 1 || !(rate > 1)) {
+            throw new IllegalArgumentException("width, height, zoom, frames and iterations must be positive and the rate greater than 1");
+        }
+        // Fails early if the pattern is invalid.
+        String.format(Locale.ROOT, output, 0);
+
+        Zoom path = new Zoom(width, height, x, y, zoom, targetX, targetY, rate);
+        MandelbrotRenderer renderer = new MandelbrotRenderer(threads);
+        ExecutorService encoders = Executors.newFixedThreadPool(threads);
+        // Bounds the frames which wait to be compressed.
+        Semaphore pending = new Semaphore(2 * threads);
+        ConcurrentLinkedQueue<int[]> pixelBuffers = new ConcurrentLinkedQueue<>();
+        Future<?>[] encoded = new Future<?>[frames];
+        IterationBuffer buffer = new IterationBuffer(width, height);
+        boolean[] known = new boolean[width * height];
+        Keyframe[] keyframes = new Keyframe[path.framesPerDoubling];
+        System.out.printf(Locale.ROOT, "rendering %d frames of %dx%d pixels, the zoom doubles every %d frames (rate %.5f) on %d threads%n",
+                frames, width, height, path.framesPerDoubling, path.rate(), threads);
+        long start = System.nanoTime();
+        long computed = 0;
+        try {
+            for (int frame = 0; frame < frames; frame++) {
+                MandelbrotView view = path.view(frame, iterations, color);
+                Keyframe keyframe = keyframes[frame % keyframes.length];
+                Arrays.fill(known, false);
+                if (keyframe != null && keyframe.fits(view)) {
+                    keyframe.copyTo(buffer, known, path.targetPixelX, path.targetPixelY);
+                }
+                int[] pixels = pixelBuffers.poll();
+                if (pixels == null) {
+                    pixels = new int[width * height];
+                }
+                long before = System.nanoTime();
+                renderer.render(view, buffer, pixels, known);
+                computed += countUnknown(known);
+                if (keyframe == null) {
+                    keyframe = new Keyframe(path.targetPixelX, path.targetPixelY, width, height);
+                    keyframes[frame % keyframes.length] = keyframe;
+                }
+                keyframe.copyFrom(view, buffer);
+                long renderNanos = System.nanoTime() - before;
+
+                pending.acquire();
+                Path file = Paths.get(String.format(Locale.ROOT, output, frame));
+                int[] image = pixels;
+                encoded[frame] = encoders.submit(() -> {
+                    try {
+                        write(file, image, width, height, compression);
+                    } finally {
+                        pixelBuffers.add(image);
+                        pending.release();
+                    }
+                    return null;
+                });
+                long nanos = System.nanoTime() - start;
+                System.err.printf(Locale.ROOT, "frame %d of %d, zoom %.6g, rendered in %d ms, %.2f frames/s, %.1f%% of all pixels reused%n",
+                        frame + 1, frames, view.zoom, renderNanos / 1000000, (frame + 1) / (nanos / 1e9),
+                        100 - 100.0 * computed / ((long) (frame + 1) * width * height));
+            }
+            for (Future<?> future : encoded) {
+                future.get();
+            }
+        } finally {
+            encoders.shutdownNow();
+            renderer.dispose();
+        }
+        long nanos = System.nanoTime() - start;
+        System.out.printf(Locale.ROOT, "wrote %d frames in %.1f s, %.2f frames/s, %d of %d pixels computed%n",
+                frames, nanos / 1e9, frames / (nanos / 1e9), computed, (long) frames * width * height);
+    }
+
+    private static int countUnknown(boolean[] known) {
+        int count = 0;
+        for (boolean value : known) {
+            if (!value) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void write(Path file, int[] pixels, int width, int height, int compression) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        try (PngWriter png = new PngWriter(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16), width, height, compression)) {
+            png.writeRows(pixels, height);
+        }
+    }
+
+    /**
+     * The views of the frames. The zoom of frame n is the start zoom times
+     * 2^(n / framesPerDoubling), which is exact for the keyframes, and the
+     * offsets are chosen so that the target is always at the same pixel.
+     */
+    static final class Zoom {
+
+        final int width;
+        final int height;
+        final double startZoom;
+        final BigDecimal targetX;
+        final BigDecimal targetY;
+        final int framesPerDoubling;
+        /**
+         * Pixel of the start view which is nearest to the target. The target
+         * is moved to it, so that the pixels of keyframes line up.
+         */
+        final int targetPixelX;
+        final int targetPixelY;
+
+        Zoom(int width, int height, BigDecimal x, BigDecimal y, double zoom, BigDecimal targetX, BigDecimal targetY, double rate) {
+            this.width = width;
+            this.height = height;
+            this.startZoom = zoom;
+            this.targetX = targetX;
+            this.targetY = targetY;
+            this.framesPerDoubling = Math.max(1, (int) Math.round(Math.log(2) / Math.log(rate)));
+            MandelbrotView start = new MandelbrotView(width, height, x, y, zoom, 1, 0, false);
+            double pixelX = targetX.subtract(x).doubleValue() / start.pixelWidth() - MandelbrotView.X_START * width / MandelbrotView.X_LENGTH;
+            double pixelY = targetY.subtract(y).doubleValue() / start.pixelHeight() - MandelbrotView.Y_START * height / MandelbrotView.Y_LENGTH;
+            if (!(pixelX >= 0 && pixelX <= width - 1 && pixelY >= 0 && pixelY <= height - 1)) {
+                throw new IllegalArgumentException("the target is not part of the start view");
+            }
+            targetPixelX = (int) Math.round(pixelX);
+            targetPixelY = (int) Math.round(pixelY);
+        }
+
+        double rate() {
+            return Math.pow(2, 1.0 / framesPerDoubling);
+        }
+
+        MandelbrotView view(int frame, int maxiterations, int colorRGBA) {
+            double zoom = startZoom * Math.pow(2, frame / framesPerDoubling) * Math.pow(2, (double) (frame % framesPerDoubling) / framesPerDoubling);
+            MandelbrotView scale = new MandelbrotView(width, height, 0, 0, zoom, 1, 0, false);
+            BigDecimal x = MandelbrotView.offset(targetX, -scale.real(targetPixelX), zoom);
+            BigDecimal y = MandelbrotView.offset(targetY, -scale.imag(targetPixelY), zoom);
+            return new MandelbrotView(width, height, x, y, zoom, maxiterations, colorRGBA, false);
+        }
+    }
+
+    /**
+     * The central part of a frame which the frame with twice its zoom needs:
+     * pixel p of that frame shows pixel t + (p - t) / 2 of this one if p - t
+     * is even, where t is the pixel of the target.
+     */
+    static final class Keyframe {
+
+        final int left;
+        final int top;
+        final IterationBuffer pixels;
+        double zoom;
+        int maxiterations;
+        MandelbrotView.Precision precision;
+
+        Keyframe(int targetPixelX, int targetPixelY, int width, int height) {
+            left = targetPixelX - targetPixelX / 2;
+            top = targetPixelY - targetPixelY / 2;
+            int right = targetPixelX + (width - 1 - targetPixelX) / 2;
+            int bottom = targetPixelY + (height - 1 - targetPixelY) / 2;
+            pixels = new IterationBuffer(right - left + 1, bottom - top + 1);
+        }
+
+        boolean fits(MandelbrotView view) {
+            return view.zoom == 2 * zoom && view.maxiterations == maxiterations && view.precision == precision;
+        }
+
+        void copyFrom(MandelbrotView view, IterationBuffer buffer) {
+            for (int y = 0; y < pixels.height; y++) {
+                int from = (top + y) * buffer.width + left;
+                int to = y * pixels.width;
+                System.arraycopy(buffer.iterations, from, pixels.iterations, to, pixels.width);
+                System.arraycopy(buffer.real, from, pixels.real, to, pixels.width);
+                System.arraycopy(buffer.imag, from, pixels.imag, to, pixels.width);
+            }
+            zoom = view.zoom;
+            maxiterations = view.maxiterations;
+            precision = view.precision;
+        }
+
+        /**
+         * Copies the pixels of the frame with twice the zoom which show the
+         * same points as pixels of this keyframe and marks them as known.
+         */
+        void copyTo(IterationBuffer buffer, boolean[] known, int targetPixelX, int targetPixelY) {
+            for (int y = targetPixelY % 2; y < buffer.height; y += 2) {
+                int row = (targetPixelY + (y - targetPixelY) / 2 - top) * pixels.width;
+                for (int x = targetPixelX % 2; x < buffer.width; x += 2) {
+                    int from = row + targetPixelX + (x - targetPixelX) / 2 - left;
+                    int to = y * buffer.width + x;
+                    buffer.iterations[to] = pixels.iterations[from];
+                    buffer.real[to] = pixels.real[from];
+                    buffer.imag[to] = pixels.imag[from];
+                    known[to] = true;
+                }
+            }
+        }
+    }
+}
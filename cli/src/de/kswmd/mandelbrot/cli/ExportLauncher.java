@@ -0,0 +1,229 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 Kai.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.mandelbrot.cli;
+
+import de.kswmd.mandelbrot.render.IterationBuffer;
+import de.kswmd.mandelbrot.render.MandelbrotRenderer;
+import de.kswmd.mandelbrot.render.MandelbrotView;
+import de.kswmd.mandelbrot.render.Palette;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+
+/**
+ * Renders an image of the Mandelbrot set into a PNG file without a display.
+ * The image is computed in bands of rows with all render threads while the
+ * previous band is compressed, so the memory needed only depends on the
+ * width of the image and images far larger than the memory can be written.
+ * With {@code --workers} the bands are computed by {@link WorkerLauncher}
+ * processes instead, see {@link TileCoordinator}.
+ *
+ * @author Kai
+ */
+public final class ExportLauncher {
+
+    static final String USAGE = "usage: export --output FILE [--width PIXELS] [--height PIXELS] [--x REAL] [--y IMAG]\n"
+            + "              [--zoom ZOOM] [--iterations N] [--color RRGGBBAA] [--threads N] [--band ROWS]\n"
+            + "              [--compression 0-9] [--antialias SAMPLES] [--subdivision] [--workers HOST:PORT,...]";
+
+    private static final long PROGRESS_INTERVAL_NANOS = 1_000_000_000L;
+
+    private ExportLauncher() {
+    }
+
+    public static void main(String[] args) {
+        Map<String, String> options;
+        try {
+            options = parse(args);
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+            return;
+        }
+        try {
+            export(options);
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        } catch (IOException | ExecutionException ex) {
+            ex.printStackTrace();
+            System.exit(1);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            System.exit(1);
+        }
+    }
+
+    static Map<String, String> parse(String[] args) {
+        Map<String, String> options = parseOptions(args);
+        if (!options.containsKey("output")) {
+            throw new IllegalArgumentException("missing --output");
+        }
+        return options;
+    }
+
+    /**
+     * Parses --NAME VALUE pairs and the --subdivision flag.
+     */
+    static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("unexpected argument " + arg);
+            }
+            String name = arg.substring(2);
+            if (name.equals("subdivision")) {
+                options.put(name, "true");
+            } else if (i + 1 < args.length) {
+                options.put(name, args[++i]);
+            } else {
+                throw new IllegalArgumentException("missing value of " + arg);
+            }
+        }
+        return options;
+    }
+
+    static void export(Map<String, String> options) throws IOException, InterruptedException, ExecutionException {
+        Path output = Paths.get(options.remove("output"));
+        int width = Integer.parseInt(options.getOrDefault("width", "7680"));
+        int height = Integer.parseInt(options.getOrDefault("height", "4320"));
+        BigDecimal x = new BigDecimal(options.getOrDefault("x", "0"));
+        BigDecimal y = new BigDecimal(options.getOrDefault("y", "0"));
+        double zoom = Double.parseDouble(options.getOrDefault("zoom", "1"));
+        int iterations = Integer.parseInt(options.getOrDefault("iterations", "1000"));
+        int color = (int) Long.parseLong(options.getOrDefault("color", "aaaaaaFF"), 16);
+        int threads = Integer.parseInt(options.getOrDefault("threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+        int band = Integer.parseInt(options.getOrDefault("band", String.valueOf(MandelbrotRenderer.DEFAULT_TILE_SIZE)));
+        int compression = Integer.parseInt(options.getOrDefault("compression", String.valueOf(Deflater.DEFAULT_COMPRESSION)));
+        int antialias = Integer.parseInt(options.getOrDefault("antialias", "0"));
+        boolean subdivision = options.containsKey("subdivision");
+        List<InetSocketAddress> workers = options.containsKey("workers") ? TileCoordinator.parseAddresses(options.get("workers")) : null;
+        for (String name : new String[]{"width", "height", "x", "y", "zoom", "iterations", "color", "threads", "band", "compression", "antialias", "subdivision", "workers"}) {
+            options.remove(name);
+        }
+        if (!options.isEmpty()) {
+            throw new IllegalArgumentException("unknown options " + options.keySet());
+        }
+        if (width < 1 || height < 1 || band < 1 || zoom < 1 || iterations < 1) {
+            throw new IllegalArgumentException("width, height, band, zoom and iterations must be positive");
+        }
+        if ((long) width * band > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("a band of " + band + " rows of " + width + " pixels is too large");
+        }
+        if (workers != null && antialias > 0) {
+            throw new IllegalArgumentException("--antialias cannot be combined with --workers");
+        }
+
+        MandelbrotView view = new MandelbrotView(width, height, x, y, zoom, iterations, color, false);
+        MandelbrotRenderer renderer = null;
+        TileCoordinator coordinator = null;
+        Palette palette = null;
+        if (workers == null) {
+            renderer = new MandelbrotRenderer(threads);
+            renderer.setSubdivision(subdivision);
+            renderer.setAntiAliasing(antialias);
+            System.out.println("rendering " + view + " on " + threads + " threads" + (renderer.isVectorized() ? " with the vectorized kernel" : ""));
+        } else {
+            coordinator = TileCoordinator.start(view, band, subdivision, workers);
+            // The workers send iterations, the colors are computed here.
+            palette = new Palette(color, iterations);
+            System.out.println("rendering " + view + " on " + coordinator.getWorkers() + " workers with " + coordinator.getThreads() + " threads");
+        }
+        ExecutorService encoder = Executors.newSingleThreadExecutor();
+        long start = System.nanoTime();
+        try (PngWriter png = new PngWriter(new BufferedOutputStream(Files.newOutputStream(output), 1 << 16), width, height, compression)) {
+            // While one pixel buffer is compressed, the next band is computed into the other one.
+            int[][] pixels = {new int[width * band], new int[width * band]};
+            IterationBuffer buffer = new IterationBuffer(width, band);
+            Future<?> pending = null;
+            long lastProgress = start;
+            long antiAliasedPixels = 0;
+            for (int row = 0, i = 0; row < height; row += band, i++) {
+                int rows = Math.min(band, height - row);
+                if (!buffer.fits(width, rows)) {
+                    buffer = new IterationBuffer(width, rows);
+                }
+                int[] target = pixels[i % 2];
+                if (coordinator != null) {
+                    coordinator.take(buffer);
+                    palette.color(buffer, target, 0, width * rows, true);
+                } else {
+                    antiAliasedPixels += renderer.render(view.band(row, rows), buffer, target).getAntiAliasedPixels();
+                }
+                if (pending != null) {
+                    pending.get();
+                }
+                pending = encoder.submit(() -> {
+                    png.writeRows(target, rows);
+                    return null;
+                });
+                long now = System.nanoTime();
+                if (now - lastProgress >= PROGRESS_INTERVAL_NANOS) {
+                    lastProgress = now;
+                    printProgress(row + rows, width, height, now - start);
+                }
+            }
+            pending.get();
+            if (antialias > 0) {
+                System.out.printf(Locale.ROOT, "anti-aliased %d edge pixels with %d extra samples, %.1f%% of supersampling every pixel%n",
+                        antiAliasedPixels, antiAliasedPixels * antialias, 100.0 * antiAliasedPixels * antialias / ((double) width * height * (antialias - 1)));
+            }
+        } finally {
+            encoder.shutdownNow();
+            if (coordinator != null) {
+                coordinator.printSummary(System.out);
+                coordinator.close();
+            } else {
+                renderer.dispose();
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        System.out.printf(Locale.ROOT, "wrote %s: %dx%d pixels in %.1f s, %.1f megapixels/s, %d bytes%n",
+                output, width, height, nanos / 1e9, (double) width * height / nanos * 1e3, Files.size(output));
+    }
+
+    private static void printProgress(long rows, int width, int height, long nanos) {
+        double done = (double) rows / height;
+        double pixelsPerSecond = (double) rows * width / nanos * 1e9;
+        long remaining = (long) ((height - rows) * width / pixelsPerSecond);
+        System.err.printf(Locale.ROOT, "%5.1f%%  %d of %d rows, %.1f megapixels/s, %d s left%n",
+                done * 100, rows, height, pixelsPerSecond / 1e6, remaining);
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 Kai.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.mandelbrot.cli;
+
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes a PNG image row by row, so the whole image never has to be in
+ * memory. The pixels are RGBA8888 values like those of the renderer. Every
+ * row is written with the Sub filter, which suits the smooth color bands of
+ * the Mandelbrot set, and the compressed rows are split into IDAT chunks.
+ *
+ * @author Kai
+ */
+final class PngWriter implements Closeable {
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int CHUNK_SIZE = 1 << 16;
+    private static final int COLOR_TYPE_RGBA = 6;
+    private static final int FILTER_SUB = 1;
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private final OutputStream out;
+    private final Deflater deflater;
+    private final DeflaterOutputStream image;
+    private final int width;
+    private final int height;
+    private final byte[] row;
+    private int rows;
+
+    PngWriter(OutputStream out, int width, int height, int compression) throws IOException {
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException("invalid size " + width + "x" + height);
+        }
+        this.out = out;
+        this.width = width;
+        this.height = height;
+        this.row = new byte[1 + width * BYTES_PER_PIXEL];
+        out.write(SIGNATURE);
+        byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = 8;
+        header[9] = COLOR_TYPE_RGBA;
+        writeChunk(out, "IHDR", header, header.length);
+        deflater = new Deflater(compression);
+        image = new DeflaterOutputStream(new ChunkOutputStream(out), deflater, CHUNK_SIZE);
+    }
+
+    /**
+     * Appends the given number of rows of pixels, which are in row order.
+     */
+    void writeRows(int[] pixels, int count) throws IOException {
+        if (rows + count > height) {
+            throw new IllegalStateException("the image only has " + height + " rows");
+        }
+        for (int y = 0; y < count; y++) {
+            row[0] = FILTER_SUB;
+            int previous = 0;
+            for (int x = 0, i = 1; x < width; x++, i += BYTES_PER_PIXEL) {
+                int pixel = pixels[y * width + x];
+                row[i] = (byte) ((pixel >>> 24) - (previous >>> 24));
+                row[i + 1] = (byte) ((pixel >>> 16) - (previous >>> 16));
+                row[i + 2] = (byte) ((pixel >>> 8) - (previous >>> 8));
+                row[i + 3] = (byte) (pixel - previous);
+                previous = pixel;
+            }
+            image.write(row);
+        }
+        rows += count;
+    }
+
+    int getRows() {
+        return rows;
+    }
+
+    /**
+     * Finishes the image. The file is left without its end chunk if not all
+     * rows were written, so it cannot be mistaken for a complete image.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (rows == height) {
+                image.finish();
+                image.flush();
+                writeChunk(out, "IEND", new byte[0], 0);
+            }
+        } finally {
+            deflater.end();
+            out.close();
+        }
+        if (rows != height) {
+            throw new IOException("only " + rows + " of " + height + " rows were written");
+        }
+    }
+
+    private static void writeChunk(OutputStream out, String type, byte[] data, int length) throws IOException {
+        byte[] name = type.getBytes(StandardCharsets.US_ASCII);
+        byte[] number = new byte[4];
+        putInt(number, 0, length);
+        out.write(number);
+        out.write(name);
+        out.write(data, 0, length);
+        CRC32 crc = new CRC32();
+        crc.update(name);
+        crc.update(data, 0, length);
+        putInt(number, 0, (int) crc.getValue());
+        out.write(number);
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Collects the compressed data and writes it as IDAT chunks.
+     */
+    private static final class ChunkOutputStream extends FilterOutputStream {
+
+        private final byte[] chunk = new byte[CHUNK_SIZE];
+        private int length;
+
+        ChunkOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (length == chunk.length) {
+                flushChunk();
+            }
+            chunk[length++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (length == chunk.length) {
+                    flushChunk();
+                }
+                int n = Math.min(len, chunk.length - length);
+                System.arraycopy(b, off, chunk, length, n);
+                length += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            flushChunk();
+            out.flush();
+        }
+
+        private void flushChunk() throws IOException {
+            if (length > 0) {
+                writeChunk(out, "IDAT", chunk, length);
+                length = 0;
+            }
+        }
+
+        /**
+         * Writes the last chunk but leaves the file open for the end chunk.
+         */
+        @Override
+        public void close() throws IOException {
+            flushChunk();
+        }
+    }
+}
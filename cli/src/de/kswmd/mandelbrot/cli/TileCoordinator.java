@@ -0,0 +1,434 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 Kai.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.mandelbrot.cli;
+
+import de.kswmd.mandelbrot.render.IterationBuffer;
+import de.kswmd.mandelbrot.render.MandelbrotView;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.Inflater;
+
+/**
+ * Distributes the bands of an export to worker processes, see
+ * {@link WorkerLauncher}, and hands their results back in the order of the
+ * rows.
+ * <p>
+ * Every worker has a connection thread and a deque of tiles, which are dealt
+ * round robin at the start. A worker takes the first tile of its own deque,
+ * and when it has none left it steals the last one of the deque with the
+ * most tiles, so fast workers compute more tiles than slow ones. If a worker
+ * is lost, its current tile goes back to its deque, which the others steal
+ * from. The same happens if a worker does not answer a tile in time. Tiles
+ * are only taken up to a window ahead of the next tile which is written, so
+ * the finished tiles which wait for a slower one are bounded. They wait
+ * compressed.
+ *
+ * @author Kai
+ */
+final class TileCoordinator implements Closeable {
+
+    /**
+     * A tile is given up if this many workers were lost while computing it.
+     */
+    static final int MAX_ATTEMPTS = 3;
+    /**
+     * Tiles per worker which may be taken ahead of the next tile which is
+     * written.
+     */
+    static final int WINDOW_PER_WORKER = 4;
+    private static final int CONNECT_TIMEOUT_MILLIS = 10_000;
+    /**
+     * A worker which does not answer the hello within this time is left out.
+     */
+    static final int HANDSHAKE_TIMEOUT_MILLIS = 10_000;
+    /**
+     * A worker is lost if it does not answer a tile within this time plus
+     * the time it takes to iterate every pixel of the tile up to the maximum
+     * at {@link #MIN_ITERATIONS_PER_MILLI}, so stalled workers are noticed
+     * even if their connection stays open.
+     */
+    static final long TILE_TIMEOUT_MILLIS = 30_000;
+    static final long MIN_ITERATIONS_PER_MILLI = 10_000;
+
+    private final MandelbrotView view;
+    private final int band;
+    private final boolean subdivision;
+    private final int tiles;
+    private final int window;
+    private final List<Worker> workers = new ArrayList<>();
+    private final byte[][] results;
+    private final int[] attempts;
+    private final Inflater inflater = new Inflater();
+    /**
+     * The next tile which is handed out by {@link #take}.
+     */
+    private int next;
+    private int live;
+    private IOException failure;
+    private boolean closed;
+
+    private TileCoordinator(MandelbrotView view, int band, boolean subdivision, int workers) {
+        this.view = view;
+        this.band = band;
+        this.subdivision = subdivision;
+        tiles = (view.height + band - 1) / band;
+        window = Math.max(2, WINDOW_PER_WORKER * workers);
+        results = new byte[tiles][];
+        attempts = new int[tiles];
+    }
+
+    /**
+     * Connects to the workers and starts to send them the bands of rows of
+     * the view. Workers which cannot be reached are left out.
+     *
+     * @throws IOException if no worker can be reached
+     */
+    static TileCoordinator start(MandelbrotView view, int band, boolean subdivision, List<InetSocketAddress> addresses) throws IOException {
+        TileCoordinator coordinator = new TileCoordinator(view, band, subdivision, addresses.size());
+        IOException failed = null;
+        for (InetSocketAddress address : addresses) {
+            try {
+                coordinator.workers.add(new Worker(address));
+            } catch (IOException ex) {
+                System.err.println("worker " + address.getHostString() + ":" + address.getPort() + " is not available: " + ex);
+                failed = ex;
+            }
+        }
+        if (coordinator.workers.isEmpty()) {
+            throw new IOException("no worker is available", failed);
+        }
+        for (int tile = 0; tile < coordinator.tiles; tile++) {
+            coordinator.workers.get(tile % coordinator.workers.size()).queue.addLast(tile);
+        }
+        coordinator.live = coordinator.workers.size();
+        for (Worker worker : coordinator.workers) {
+            Thread thread = new Thread(() -> coordinator.run(worker), "tile-worker-" + worker.name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        return coordinator;
+    }
+
+    /**
+     * Parses a comma separated list of HOST:PORT. A bare port is a port of
+     * this machine.
+     */
+    static List<InetSocketAddress> parseAddresses(String list) {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (String entry : list.split(",")) {
+            String address = entry.trim();
+            int colon = address.lastIndexOf(':');
+            String host = colon < 0 ? "localhost" : address.substring(0, colon);
+            int port;
+            try {
+                port = Integer.parseInt(address.substring(colon + 1));
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("worker " + address + " is not HOST:PORT");
+            }
+            if (host.isEmpty() || port < 1 || port > 0xFFFF) {
+                throw new IllegalArgumentException("worker " + address + " is not HOST:PORT");
+            }
+            addresses.add(InetSocketAddress.createUnresolved(host, port));
+        }
+        return addresses;
+    }
+
+    int getWorkers() {
+        return workers.size();
+    }
+
+    /**
+     * Sum of the render threads of the workers.
+     */
+    int getThreads() {
+        int threads = 0;
+        for (Worker worker : workers) {
+            threads += worker.threads;
+        }
+        return threads;
+    }
+
+    /**
+     * Waits for the next tile and reads its iterations into the first rows
+     * of the buffer. Tiles are returned in the order of their rows.
+     *
+     * @return the number of rows of the tile
+     * @throws IOException if the tile could not be computed
+     */
+    int take(IterationBuffer buffer) throws IOException, InterruptedException {
+        int tile;
+        byte[] compressed;
+        synchronized (this) {
+            tile = next;
+            if (tile >= tiles) {
+                throw new IllegalStateException("all tiles were taken");
+            }
+            while (results[tile] == null) {
+                if (failure != null) {
+                    throw new IOException(failure.getMessage(), failure);
+                }
+                wait();
+            }
+            compressed = results[tile];
+            results[tile] = null;
+            next++;
+            // Moves the window.
+            notifyAll();
+        }
+        int rows = rows(tile);
+        TileProtocol.decode(compressed, buffer, view.width * rows, view.maxiterations, inflater);
+        return rows;
+    }
+
+    private int rows(int tile) {
+        return Math.min(band, view.height - tile * band);
+    }
+
+    private int timeoutMillis(int tile) {
+        long iterations = (long) view.width * rows(tile) * view.maxiterations;
+        return (int) Math.min(Integer.MAX_VALUE, TILE_TIMEOUT_MILLIS + iterations / MIN_ITERATIONS_PER_MILLI);
+    }
+
+    /**
+     * Sends tiles to one worker until all tiles are computed or the worker is
+     * lost.
+     */
+    private void run(Worker worker) {
+        int tile = -1;
+        try {
+            while ((tile = nextTile(worker)) >= 0) {
+                worker.socket.setSoTimeout(timeoutMillis(tile));
+                new TileProtocol.Request(tile, view, tile * band, rows(tile), subdivision).write(worker.out);
+                byte type = worker.in.readByte();
+                if (type == TileProtocol.ERROR) {
+                    fail(new IOException("worker " + worker.name + " failed: " + worker.in.readUTF()));
+                    return;
+                }
+                if (type != TileProtocol.TILE || worker.in.readInt() != tile) {
+                    throw new IOException("unexpected answer " + type);
+                }
+                long nanos = worker.in.readLong();
+                int length = worker.in.readInt();
+                if (length < 0) {
+                    throw new IOException("tile of " + length + " bytes");
+                }
+                byte[] compressed = new byte[length];
+                worker.in.readFully(compressed);
+                complete(worker, tile, compressed, nanos);
+                tile = -1;
+            }
+            worker.out.writeByte(TileProtocol.BYE);
+            worker.out.flush();
+        } catch (SocketTimeoutException ex) {
+            lose(worker, tile, new SocketTimeoutException("no answer for tile " + tile + " within " + timeoutMillis(tile) / 1000 + " s"));
+        } catch (IOException ex) {
+            lose(worker, tile, ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                worker.socket.close();
+            } catch (IOException ex) {
+                // the connection is gone anyway
+            }
+        }
+    }
+
+    /**
+     * Returns the next tile for the worker, -1 if all tiles are computed.
+     */
+    private synchronized int nextTile(Worker worker) throws InterruptedException {
+        while (true) {
+            if (closed || failure != null || remaining() == 0) {
+                return -1;
+            }
+            int limit = next + window;
+            Integer own = worker.queue.peekFirst();
+            if (own != null && own < limit) {
+                worker.queue.pollFirst();
+                worker.current = own;
+                return own;
+            }
+            Worker victim = null;
+            int most = 0;
+            for (Worker other : workers) {
+                int count = 0;
+                for (int tile : other.queue) {
+                    if (tile < limit) {
+                        count++;
+                    }
+                }
+                if (other != worker && count > most) {
+                    victim = other;
+                    most = count;
+                }
+            }
+            if (victim != null) {
+                for (Iterator<Integer> tiles = victim.queue.descendingIterator(); tiles.hasNext();) {
+                    int tile = tiles.next();
+                    if (tile < limit) {
+                        tiles.remove();
+                        worker.stolen++;
+                        worker.current = tile;
+                        return tile;
+                    }
+                }
+            }
+            wait();
+        }
+    }
+
+    /**
+     * Tiles which wait in a deque or are being computed.
+     */
+    private int remaining() {
+        int count = 0;
+        for (Worker worker : workers) {
+            count += worker.queue.size() + (worker.current >= 0 ? 1 : 0);
+        }
+        return count;
+    }
+
+    private synchronized void complete(Worker worker, int tile, byte[] compressed, long nanos) {
+        results[tile] = compressed;
+        worker.current = -1;
+        worker.tiles++;
+        worker.pixels += (long) view.width * rows(tile);
+        worker.nanos += nanos;
+        worker.bytes += compressed.length;
+        notifyAll();
+    }
+
+    private synchronized void lose(Worker worker, int tile, IOException ex) {
+        worker.lost = true;
+        worker.current = -1;
+        live--;
+        if (closed) {
+            return;
+        }
+        System.err.println("lost worker " + worker.name + ": " + ex);
+        if (tile >= 0) {
+            if (++attempts[tile] >= MAX_ATTEMPTS) {
+                failure = new IOException("tile " + tile + " was lost on " + MAX_ATTEMPTS + " workers", ex);
+            } else {
+                // The other workers steal it from the deque of the lost one.
+                worker.queue.addFirst(tile);
+            }
+        }
+        if (live == 0 && failure == null && remaining() > 0) {
+            failure = new IOException("all workers were lost", ex);
+        }
+        notifyAll();
+    }
+
+    private synchronized void fail(IOException ex) {
+        if (failure == null) {
+            failure = ex;
+        }
+        notifyAll();
+    }
+
+    /**
+     * Prints what every worker computed.
+     */
+    synchronized void printSummary(PrintStream out) {
+        for (Worker worker : workers) {
+            out.printf(Locale.ROOT, "worker %s: %d tiles, %d stolen, %.1f megapixels/s, %.1f bytes per pixel%s%n",
+                    worker.name, worker.tiles, worker.stolen,
+                    worker.nanos == 0 ? 0 : worker.pixels / (worker.nanos / 1e3),
+                    worker.pixels == 0 ? 0 : (double) worker.bytes / worker.pixels,
+                    worker.lost ? ", lost" : "");
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        for (Worker worker : workers) {
+            try {
+                worker.socket.close();
+            } catch (IOException ex) {
+                // closed anyway
+            }
+        }
+        inflater.end();
+    }
+
+    private static final class Worker {
+
+        final InetSocketAddress address;
+        final String name;
+        final Socket socket;
+        final DataInputStream in;
+        final DataOutputStream out;
+        final int threads;
+        /**
+         * The tiles this worker computes next, guarded by the coordinator.
+         */
+        final ArrayDeque<Integer> queue = new ArrayDeque<>();
+        int current = -1;
+        int tiles;
+        int stolen;
+        long pixels;
+        long nanos;
+        long bytes;
+        boolean lost;
+
+        Worker(InetSocketAddress address) throws IOException {
+            this.address = address;
+            name = address.getHostString() + ":" + address.getPort();
+            socket = new Socket();
+            try {
+                socket.connect(new InetSocketAddress(address.getHostString(), address.getPort()), CONNECT_TIMEOUT_MILLIS);
+                socket.setTcpNoDelay(true);
+                socket.setKeepAlive(true);
+                socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+                in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+                out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+                TileProtocol.writeHello(out);
+                TileProtocol.readHello(in);
+                threads = in.readInt();
+            } catch (IOException ex) {
+                socket.close();
+                throw ex;
+            }
+        }
+    }
+}
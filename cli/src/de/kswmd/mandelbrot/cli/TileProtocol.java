@@ -0,0 +1,248 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 Kai.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.mandelbrot.cli;
+
+import de.kswmd.mandelbrot.render.IterationBuffer;
+import de.kswmd.mandelbrot.render.MandelbrotView;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The messages between the coordinator of a distributed export and its
+ * workers. Both sides start with {@link #MAGIC} and {@link #VERSION}, the
+ * worker also sends its number of render threads. Then the coordinator sends
+ * one {@link #TILE} request at a time, which the worker answers with a
+ * {@link #TILE} result or an {@link #ERROR}, until it sends {@link #BYE} or
+ * closes the connection.
+ * <p>
+ * A tile is a band of rows of the image. It is sent back as its compressed
+ * iterations, the difference to the previous pixel each, followed by the
+ * squared absolute value of the last z of the escaped pixels as a float.
+ * The coloring needs no more than that, and the angle of z would double the
+ * size of a tile since it hardly compresses.
+ *
+ * @author Kai
+ */
+final class TileProtocol {
+
+    static final int MAGIC = 0x4D474458;
+    static final int VERSION = 1;
+    static final int DEFAULT_PORT = 7077;
+
+    static final byte TILE = 1;
+    static final byte ERROR = 2;
+    static final byte BYE = 3;
+
+    private TileProtocol() {
+    }
+
+    /**
+     * A band of rows of an image which a worker is asked to compute.
+     */
+    static final class Request {
+
+        final int tile;
+        final int width;
+        final int imageHeight;
+        final BigDecimal x;
+        final BigDecimal y;
+        final double zoom;
+        final int maxiterations;
+        final int firstRow;
+        final int rows;
+        final boolean subdivision;
+
+        Request(int tile, MandelbrotView image, int firstRow, int rows, boolean subdivision) {
+            this(tile, image.width, image.height, image.xOffset, image.yOffset, image.zoom, image.maxiterations, firstRow, rows, subdivision);
+        }
+
+        private Request(int tile, int width, int imageHeight, BigDecimal x, BigDecimal y, double zoom, int maxiterations, int firstRow, int rows, boolean subdivision) {
+            this.tile = tile;
+            this.width = width;
+            this.imageHeight = imageHeight;
+            this.x = x;
+            this.y = y;
+            this.zoom = zoom;
+            this.maxiterations = maxiterations;
+            this.firstRow = firstRow;
+            this.rows = rows;
+            this.subdivision = subdivision;
+        }
+
+        /**
+         * The view of the band. Its colors are never used, the coordinator
+         * colors the iterations itself.
+         */
+        MandelbrotView view() {
+            return new MandelbrotView(width, imageHeight, x, y, zoom, maxiterations, 0, false).band(firstRow, rows);
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeByte(TILE);
+            out.writeInt(tile);
+            out.writeInt(width);
+            out.writeInt(imageHeight);
+            out.writeUTF(x.toString());
+            out.writeUTF(y.toString());
+            out.writeDouble(zoom);
+            out.writeInt(maxiterations);
+            out.writeInt(firstRow);
+            out.writeInt(rows);
+            out.writeBoolean(subdivision);
+            out.flush();
+        }
+
+        /**
+         * Reads the request after its {@link #TILE} byte.
+         */
+        static Request read(DataInputStream in) throws IOException {
+            int tile = in.readInt();
+            int width = in.readInt();
+            int imageHeight = in.readInt();
+            BigDecimal x;
+            BigDecimal y;
+            try {
+                x = new BigDecimal(in.readUTF());
+                y = new BigDecimal(in.readUTF());
+            } catch (NumberFormatException ex) {
+                throw new IOException(ex);
+            }
+            return new Request(tile, width, imageHeight, x, y, in.readDouble(), in.readInt(), in.readInt(), in.readInt(), in.readBoolean());
+        }
+    }
+
+    static void writeHello(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.flush();
+    }
+
+    static void readHello(DataInputStream in) throws IOException {
+        int magic = in.readInt();
+        int version = in.readInt();
+        if (magic != MAGIC) {
+            throw new IOException("not a mandelbrot worker connection");
+        }
+        if (version != VERSION) {
+            throw new IOException("protocol version " + version + " is not supported, expected " + VERSION);
+        }
+    }
+
+    /**
+     * Compresses the iterations of the first pixels of the buffer.
+     */
+    static byte[] encode(IterationBuffer buffer, int pixels, int maxiterations, Deflater deflater) {
+        int[] iterations = buffer.iterations;
+        int escaped = 0;
+        for (int i = 0; i < pixels; i++) {
+            if (iterations[i] < maxiterations) {
+                escaped++;
+            }
+        }
+        ByteBuffer data = ByteBuffer.allocate(pixels * Integer.BYTES + escaped * Float.BYTES);
+        int previous = 0;
+        for (int i = 0; i < pixels; i++) {
+            data.putInt(iterations[i] - previous);
+            previous = iterations[i];
+        }
+        for (int i = 0; i < pixels; i++) {
+            if (iterations[i] < maxiterations) {
+                double real = buffer.real[i];
+                double imag = buffer.imag[i];
+                data.putFloat((float) (real * real + imag * imag));
+            }
+        }
+        deflater.reset();
+        deflater.setInput(data.array(), 0, data.position());
+        deflater.finish();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.position() / 4 + 64);
+        byte[] chunk = new byte[1 << 16];
+        while (!deflater.finished()) {
+            compressed.write(chunk, 0, deflater.deflate(chunk));
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * Reads the iterations written by {@link #encode} into the first pixels
+     * of the buffer. The last z of escaped pixels is put on the real axis,
+     * pixels which did not escape get none.
+     */
+    static void decode(byte[] compressed, IterationBuffer buffer, int pixels, int maxiterations, Inflater inflater) throws IOException {
+        int[] iterations = buffer.iterations;
+        ByteBuffer data = ByteBuffer.allocate(pixels * Integer.BYTES);
+        inflater.reset();
+        inflater.setInput(compressed);
+        try {
+            inflate(inflater, data);
+            int previous = 0;
+            int escaped = 0;
+            for (int i = 0; i < pixels; i++) {
+                previous += data.getInt(i * Integer.BYTES);
+                if (previous < 0 || previous > maxiterations) {
+                    throw new IOException("pixel " + i + " has " + previous + " iterations");
+                }
+                iterations[i] = previous;
+                if (previous < maxiterations) {
+                    escaped++;
+                }
+            }
+            data = ByteBuffer.allocate(escaped * Float.BYTES);
+            inflate(inflater, data);
+            if (inflater.inflate(new byte[1]) > 0 || !inflater.finished() || inflater.getRemaining() > 0) {
+                throw new IOException("tile does not match its pixels");
+            }
+        } catch (DataFormatException ex) {
+            throw new IOException(ex);
+        }
+        data.flip();
+        for (int i = 0; i < pixels; i++) {
+            if (iterations[i] < maxiterations) {
+                buffer.real[i] = Math.sqrt(data.getFloat());
+                buffer.imag[i] = 0;
+            } else {
+                buffer.real[i] = Double.NaN;
+                buffer.imag[i] = Double.NaN;
+            }
+        }
+    }
+
+    private static void inflate(Inflater inflater, ByteBuffer data) throws IOException, DataFormatException {
+        byte[] array = data.array();
+        while (data.hasRemaining()) {
+            int n = inflater.inflate(array, data.position(), data.remaining());
+            if (n == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                throw new IOException("tile is shorter than its pixels");
+            }
+            data.position(data.position() + n);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 Kai.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.mandelbrot.cli;
+
+import de.kswmd.mandelbrot.render.IterationBuffer;
+import de.kswmd.mandelbrot.render.MandelbrotRenderer;
+import de.kswmd.mandelbrot.render.MandelbrotView;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * Computes tiles for exports on other machines, see the {@code --workers}
+ * option of {@link ExportLauncher}. The worker listens on a port and
+ * computes the iterations of the tiles which the coordinators send with all
+ * its render threads, one tile at a time, and sends them back compressed.
+ * The coordinators color them.
+ *
+ * @author Kai
+ */
+public final class WorkerLauncher {
+
+    static final String USAGE = "usage: worker [--port PORT] [--bind ADDRESS] [--threads N]";
+
+    private final MandelbrotRenderer renderer;
+    private final ServerSocket server;
+    private int connections;
+
+    private WorkerLauncher(MandelbrotRenderer renderer, ServerSocket server) {
+        this.renderer = renderer;
+        this.server = server;
+    }
+
+    public static void main(String[] args) {
+        try {
+            Map<String, String> options = ExportLauncher.parseOptions(args);
+            int port = Integer.parseInt(options.getOrDefault("port", String.valueOf(TileProtocol.DEFAULT_PORT)));
+            String bind = options.get("bind");
+            int threads = Integer.parseInt(options.getOrDefault("threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+            for (String name : new String[]{"port", "bind", "threads"}) {
+                options.remove(name);
+            }
+            if (!options.isEmpty()) {
+                throw new IllegalArgumentException("unknown options " + options.keySet());
+            }
+            if (port < 0 || port > 0xFFFF || threads < 1) {
+                throw new IllegalArgumentException("the port must be 0 to 65535 and the threads positive");
+            }
+            ServerSocket server = new ServerSocket(port, 50, bind == null ? null : InetAddress.getByName(bind));
+            MandelbrotRenderer renderer = new MandelbrotRenderer(threads);
+            System.out.println("worker listening on " + server.getLocalSocketAddress() + " with " + threads + " threads"
+                    + (renderer.isVectorized() ? " and the vectorized kernel" : ""));
+            new WorkerLauncher(renderer, server).serve();
+        } catch (IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.err.println(USAGE);
+            System.exit(2);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    private void serve() throws IOException {
+        while (true) {
+            Socket socket = server.accept();
+            Thread thread = new Thread(() -> handle(socket), "worker-connection-" + ++connections);
+            thread.start();
+        }
+    }
+
+    private void handle(Socket socket) {
+        String peer = String.valueOf(socket.getRemoteSocketAddress());
+        System.out.println("coordinator " + peer + " connected");
+        int tiles = 0;
+        long pixels = 0;
+        long nanos = 0;
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (Socket s = socket) {
+            s.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream(), 1 << 16));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream(), 1 << 16));
+            TileProtocol.readHello(in);
+            TileProtocol.writeHello(out);
+            out.writeInt(renderer.getThreads());
+            out.flush();
+            IterationBuffer buffer = null;
+            while (true) {
+                byte type;
+                try {
+                    type = in.readByte();
+                } catch (EOFException ex) {
+                    break;
+                }
+                if (type == TileProtocol.BYE) {
+                    break;
+                }
+                if (type != TileProtocol.TILE) {
+                    throw new IOException("unknown message " + type);
+                }
+                TileProtocol.Request request = TileProtocol.Request.read(in);
+                long start = System.nanoTime();
+                MandelbrotView view;
+                try {
+                    view = request.view();
+                } catch (IllegalArgumentException ex) {
+                    out.writeByte(TileProtocol.ERROR);
+                    out.writeUTF("tile " + request.tile + ": " + ex.getMessage());
+                    out.flush();
+                    continue;
+                }
+                if (buffer == null || !buffer.fits(view.width, view.height)) {
+                    buffer = new IterationBuffer(view.width, view.height);
+                }
+                // The tiles of all connections share the render threads.
+                synchronized (renderer) {
+                    renderer.setSubdivision(request.subdivision);
+                    renderer.compute(view, buffer);
+                }
+                byte[] compressed = TileProtocol.encode(buffer, view.width * view.height, view.maxiterations, deflater);
+                long time = System.nanoTime() - start;
+                out.writeByte(TileProtocol.TILE);
+                out.writeInt(request.tile);
+                out.writeLong(time);
+                out.writeInt(compressed.length);
+                out.write(compressed);
+                out.flush();
+                tiles++;
+                pixels += (long) view.width * view.height;
+                nanos += time;
+            }
+        } catch (IOException ex) {
+            System.err.println("connection to " + peer + " failed: " + ex);
+        } finally {
+            deflater.end();
+        }
+        System.out.printf(Locale.ROOT, "coordinator %s disconnected after %d tiles, %.1f megapixels/s%n",
+                peer, tiles, nanos == 0 ? 0 : pixels / (nanos / 1e3));
+    }
+}
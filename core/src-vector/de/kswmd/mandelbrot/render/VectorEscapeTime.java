@@ -0,0 +1,134 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 Kai.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.mandelbrot.render;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The escape time algorithm of {@link EscapeTime} for a whole vector of points
+ * at once. Every lane has its own escape mask and lanes which escaped or were
+ * recognized as interior keep their last z, so the loop needs no branch except
+ * for the end, which is reached as soon as no lane is active anymore. Brent's
+ * cycle detection works on all lanes together since they all start at the
+ * same iteration. The arithmetic is the same as in the scalar loop, so the
+ * results are identical.
+ * <p>
+ * Loaded reflectively by {@link MandelbrotRenderer}.
+ *
+ * @author Kai
+ */
+final class VectorEscapeTime implements BatchEscapeTime {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    public int lanes() {
+        return SPECIES.length();
+    }
+
+    @Override
+    public void iterate(double[] real, double[] imag, int[] indexes, int count, int maxiterations, IterationBuffer buffer) {
+        int lanes = SPECIES.length();
+        boolean[] interior = new boolean[lanes];
+        double[] x = new double[lanes];
+        double[] y = new double[lanes];
+        double[] counts = new double[lanes];
+        int i = 0;
+        for (; i + lanes <= count; i += lanes) {
+            iterateLanes(real, imag, indexes, i, maxiterations, buffer, interior, x, y, counts);
+        }
+        for (; i < count; i++) {
+            EscapeTime.iterate(real[i], imag[i], maxiterations, buffer, indexes[i]);
+        }
+    }
+
+    /**
+     * Iterates the points starting at offset. Lanes which are done keep
+     * their last z and count. The arrays interior, x, y and count are scratch
+     * space of the length of a vector.
+     */
+    private static void iterateLanes(double[] real, double[] imag, int[] indexes, int offset, int maxiterations, IterationBuffer buffer,
+            boolean[] interior, double[] x, double[] y, double[] count) {
+        int lanes = interior.length;
+        for (int lane = 0; lane < lanes; lane++) {
+            interior[lane] = EscapeTime.isInterior(real[offset + lane], imag[offset + lane]);
+        }
+        VectorMask<Double> active = VectorMask.fromArray(SPECIES, interior, 0).not();
+        DoubleVector cr = DoubleVector.fromArray(SPECIES, real, offset);
+        DoubleVector ci = DoubleVector.fromArray(SPECIES, imag, offset);
+        DoubleVector zx = DoubleVector.zero(SPECIES);
+        DoubleVector zy = DoubleVector.zero(SPECIES);
+        DoubleVector iterations = DoubleVector.zero(SPECIES);
+        DoubleVector cycles = DoubleVector.zero(SPECIES);
+        DoubleVector checkX = zx;
+        DoubleVector checkY = zy;
+        int period = 0;
+        int periodLimit = 8;
+        for (int i = 0; i < maxiterations; i++) {
+            DoubleVector xx = zx.mul(zx);
+            DoubleVector yy = zy.mul(zy);
+            VectorMask<Double> running = active.and(xx.add(yy).compare(VectorOperators.LE, EscapeTime.BAILOUT));
+            if (!running.anyTrue()) {
+                break;
+            }
+            zy = zy.blend(zx.mul(2.0).mul(zy).add(ci), running);
+            zx = zx.blend(xx.sub(yy).add(cr), running);
+            iterations = iterations.add(1.0, running);
+            VectorMask<Double> cycle = zx.compare(VectorOperators.EQ, checkX).and(zy.compare(VectorOperators.EQ, checkY)).and(running);
+            cycles = cycles.blend(1.0, cycle);
+            active = running.andNot(cycle);
+            // a conditional assignment of the checkpoint keeps C2 from
+            // keeping the vectors in registers, so it is blended instead
+            boolean checkpoint = ++period == periodLimit;
+            if (checkpoint) {
+                period = 0;
+                periodLimit <<= 1;
+            }
+            VectorMask<Double> checkpoints = SPECIES.maskAll(checkpoint);
+            checkX = checkX.blend(zx, checkpoints);
+            checkY = checkY.blend(zy, checkpoints);
+        }
+        VectorMask<Double> inside = cycles.compare(VectorOperators.NE, 0.0);
+        zx.intoArray(x, 0);
+        zy.intoArray(y, 0);
+        iterations.intoArray(count, 0);
+        for (int lane = 0; lane < lanes; lane++) {
+            int index = indexes[offset + lane];
+            if (interior[lane] || inside.laneIsSet(lane)) {
+                store(buffer, index, maxiterations, Double.NaN, Double.NaN);
+            } else {
+                store(buffer, index, (int) count[lane], x[lane], y[lane]);
+            }
+        }
+    }
+
+    private static void store(IterationBuffer buffer, int index, int iterations, double x, double y) {
+        buffer.iterations[index] = iterations;
+        buffer.real[index] = x;
+        buffer.imag[index] = y;
+    }
+}
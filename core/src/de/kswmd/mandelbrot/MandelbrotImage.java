@@ -0,0 +1,163 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 Kai.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.mandelbrot;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.g2d.SpriteBatch;
+import com.badlogic.gdx.utils.BufferUtils;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.IntMap;
+import de.kswmd.mandelbrot.render.PixelWriter;
+import de.kswmd.mandelbrot.render.Tile;
+import java.nio.IntBuffer;
+
+/**
+ * The rendered picture on the CPU and on the GPU. The pixmap and the textures
+ * are allocated once for a window size and updated tile by tile with sub
+ * image uploads. Pictures which are larger than the maximum texture size of
+ * the GPU are split into several textures. The pixels are written straight
+ * into the buffer of the pixmap instead of calling drawPixel for each of them.
+ *
+ * @author Kai
+ */
+public final class MandelbrotImage implements Disposable {
+
+    public final int width;
+    public final int height;
+
+    final Pixmap pixmap;
+    final PixelWriter writer;
+    final int chunkSize;
+    final int columns;
+    final int rows;
+    final Texture[] textures;
+    /**
+     * Pixmaps in the size of a tile which hold the pixels of an upload, keyed
+     * by width << 16 | height.
+     */
+    final IntMap<Pixmap> uploadPixmaps = new IntMap<>();
+
+    public MandelbrotImage(int width, int height) {
+        this(width, height, maxTextureSize());
+    }
+
+    public MandelbrotImage(int width, int height, int chunkSize) {
+        this.width = width;
+        this.height = height;
+        this.chunkSize = chunkSize;
+        pixmap = new Pixmap(width, height, Pixmap.Format.RGBA8888);
+        pixmap.setBlending(Pixmap.Blending.None);
+        writer = new PixelWriter(pixmap.getPixels(), width, height);
+        columns = (width + chunkSize - 1) / chunkSize;
+        rows = (height + chunkSize - 1) / chunkSize;
+        textures = new Texture[columns * rows];
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                int chunkWidth = Math.min(chunkSize, width - column * chunkSize);
+                int chunkHeight = Math.min(chunkSize, height - row * chunkSize);
+                textures[row * columns + column] = new Texture(chunkWidth, chunkHeight, Pixmap.Format.RGBA8888);
+            }
+        }
+        if (textures.length > 1) {
+            Gdx.app.debug(MandelbrotImage.class.getSimpleName(), width + "x" + height + " split into " + textures.length + " textures");
+        }
+    }
+
+    /**
+     * Copies the pixels of the tile into the pixmap and uploads them to the
+     * textures which contain the tile.
+     */
+    public void update(int[] pixels, Tile tile) {
+        writer.write(pixels, tile);
+        int firstColumn = tile.x / chunkSize;
+        int lastColumn = (tile.x + tile.width - 1) / chunkSize;
+        int firstRow = tile.y / chunkSize;
+        int lastRow = (tile.y + tile.height - 1) / chunkSize;
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int column = firstColumn; column <= lastColumn; column++) {
+                int chunkX = column * chunkSize;
+                int chunkY = row * chunkSize;
+                int x = Math.max(tile.x, chunkX);
+                int y = Math.max(tile.y, chunkY);
+                int uploadWidth = Math.min(tile.x + tile.width, chunkX + chunkSize) - x;
+                int uploadHeight = Math.min(tile.y + tile.height, chunkY + chunkSize) - y;
+                Pixmap upload = uploadPixmap(uploadWidth, uploadHeight);
+                upload.drawPixmap(pixmap, 0, 0, x, y, uploadWidth, uploadHeight);
+                textures[row * columns + column].draw(upload, x - chunkX, y - chunkY);
+            }
+        }
+    }
+
+    public void draw(SpriteBatch batch) {
+        draw(batch, 0, 0, width, height);
+    }
+
+    /**
+     * Draws the picture stretched to the rectangle with the lower left corner
+     * at x, y.
+     */
+    public void draw(SpriteBatch batch, float x, float y, float drawWidth, float drawHeight) {
+        float scaleX = drawWidth / width;
+        float scaleY = drawHeight / height;
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                Texture texture = textures[row * columns + column];
+                batch.draw(texture, x + column * chunkSize * scaleX, y + (height - row * chunkSize - texture.getHeight()) * scaleY,
+                        texture.getWidth() * scaleX, texture.getHeight() * scaleY);
+            }
+        }
+    }
+
+    private Pixmap uploadPixmap(int uploadWidth, int uploadHeight) {
+        int key = uploadWidth << 16 | uploadHeight;
+        Pixmap upload = uploadPixmaps.get(key);
+        if (upload == null) {
+            upload = new Pixmap(uploadWidth, uploadHeight, Pixmap.Format.RGBA8888);
+            upload.setBlending(Pixmap.Blending.None);
+            uploadPixmaps.put(key, upload);
+        }
+        return upload;
+    }
+
+    private static int maxTextureSize() {
+        IntBuffer buffer = BufferUtils.newIntBuffer(16);
+        Gdx.gl.glGetIntegerv(GL20.GL_MAX_TEXTURE_SIZE, buffer);
+        return buffer.get(0);
+    }
+
+    @Override
+    public void dispose() {
+        pixmap.dispose();
+        for (Texture texture : textures) {
+            texture.dispose();
+        }
+        for (Pixmap upload : uploadPixmaps.values()) {
+            upload.dispose();
+        }
+        uploadPixmaps.clear();
+    }
+}
@@ -30,8 +30,6 @@ import com.badlogic.gdx.InputMultiplexer;
 import com.badlogic.gdx.Screen;
 import com.badlogic.gdx.graphics.Color;
 import com.badlogic.gdx.graphics.GL20;
-import com.badlogic.gdx.graphics.Pixmap;
-import com.badlogic.gdx.graphics.Texture;
 import com.badlogic.gdx.graphics.g2d.SpriteBatch;
 import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.scenes.scene2d.InputEvent;
@@ -45,8 +43,23 @@ import com.badlogic.gdx.scenes.scene2d.ui.TextField;
 import com.badlogic.gdx.scenes.scene2d.utils.ClickListener;
 import com.badlogic.gdx.utils.Align;
 import com.badlogic.gdx.utils.Scaling;
+import de.kswmd.mandelbrot.render.IterationBudget;
+import de.kswmd.mandelbrot.render.IterationBuffer;
+import de.kswmd.mandelbrot.render.JuliaPreview;
+import de.kswmd.mandelbrot.render.MandelbrotRenderer;
+import de.kswmd.mandelbrot.render.MandelbrotView;
+import de.kswmd.mandelbrot.render.RenderJob;
+import de.kswmd.mandelbrot.render.RenderListener;
+import de.kswmd.mandelbrot.render.RenderMetrics;
+import de.kswmd.mandelbrot.render.RenderMetricsLog;
+import de.kswmd.mandelbrot.render.Tile;
+import de.kswmd.mandelbrot.render.TileCache;
+import de.kswmd.mandelbrot.render.TileStore;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.math.BigDecimal;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  *
@@ -54,27 +67,129 @@ import java.io.StringWriter;
  */
 public final class MandelbrotScreen implements Screen {
 
-    public static final double X_START = -2f;
-    public static final double X_END = 1f;
+    public static final double X_START = MandelbrotView.X_START;
+    public static final double X_END = MandelbrotView.X_END;
 
-    public static final double Y_START = -1f;
-    public static final double Y_END = 1f;
+    public static final double Y_START = MandelbrotView.Y_START;
+    public static final double Y_END = MandelbrotView.Y_END;
 
     public static final boolean DEBUG = true;
+    /**
+     * The arrow keys move the view by this fraction of its size.
+     */
+    public static final int PAN_STEPS = 10;
+    /**
+     * Memory budget of the cache for computed tiles.
+     */
+    public static final long TILE_CACHE_BYTES = 256L << 20;
+    /**
+     * Size limit and directory of the store for expensive tiles on disk. The
+     * directory is relative to the home directory of the user.
+     */
+    public static final long TILE_STORE_BYTES = 1L << 30;
+    public static final String TILE_STORE_DIRECTORY = ".mandelbrot-gdx/tiles";
+    /**
+     * File the metrics of every finished render are appended to, relative to
+     * the home directory of the user. A name ending with .csv selects CSV.
+     */
+    public static final String METRICS_FILE = ".mandelbrot-gdx/render-metrics.jsonl";
+    /**
+     * Time budget for the first image of a view which B switches on and the
+     * highest maximum number of iterations the budget may choose.
+     */
+    public static final int DEFAULT_BUDGET_MILLIS = 100;
+    public static final int BUDGET_MAX_ITERATIONS = 1 << 20;
+    /**
+     * Samples per edge pixel when A switches the anti-aliasing on.
+     */
+    public static final int ANTI_ALIASING_SAMPLES = 16;
+    /**
+     * Size of the preview of the Julia set of the point under the mouse and
+     * its distance to the lower right corner.
+     */
+    public static final int JULIA_PREVIEW_WIDTH = 256;
+    public static final int JULIA_PREVIEW_HEIGHT = 144;
+    public static final int JULIA_PREVIEW_MARGIN = 10;
 
     final SpriteBatch batch = new SpriteBatch();
-    Texture img;
-    Pixmap mandelbrot;
+    final MandelbrotRenderer renderer = new MandelbrotRenderer();
+    final TileCache tileCache = new TileCache(TILE_CACHE_BYTES);
+    TileStore tileStore;
+    IOException reportedStoreFailure;
+    RenderMetricsLog metricsLog;
+    /**
+     * Renders the Julia set of the point under the mouse on a thread of its
+     * own. Its low resolution and refined images are uploaded into their own
+     * pictures, the last one which was updated is shown.
+     */
+    final JuliaPreview juliaPreview = new JuliaPreview(JULIA_PREVIEW_WIDTH, JULIA_PREVIEW_HEIGHT);
+    MandelbrotImage juliaLowImage;
+    MandelbrotImage juliaFullImage;
+    MandelbrotImage juliaImage;
+    boolean juliaVisible = true;
+    /**
+     * Chooses the maximum number of iterations while the time budget mode is
+     * on, otherwise null. The budget in milliseconds is kept while it is off.
+     */
+    IterationBudget budget;
+    int budgetMillis = DEFAULT_BUDGET_MILLIS;
+    /**
+     * Start of the render of the current view in the time budget mode and
+     * how long its first image took.
+     */
+    long budgetStart;
+    long firstImageMillis;
+    MandelbrotImage mandelbrot;
+    /**
+     * Pixel and iteration buffers of finished or cancelled renders which can
+     * be reused. They are only released on the render thread of libGDX.
+     */
+    final ConcurrentLinkedQueue<int[]> pixelBuffers = new ConcurrentLinkedQueue<>();
+    final ConcurrentLinkedQueue<IterationBuffer> iterationBuffers = new ConcurrentLinkedQueue<>();
+    /**
+     * The render of the current view which is still running in the
+     * background. Only accessed on the render thread of libGDX.
+     */
+    RenderJob renderJob;
+    /**
+     * The last finished render. Its iterations are kept, so a change of the
+     * colors or of the maximum number of iterations does not need to compute
+     * the whole area again.
+     */
+    RenderJob shownJob;
+    final RenderListener renderListener = new RenderListener() {
+        @Override
+        public void finished(RenderJob job) {
+            Gdx.app.postRunnable(() -> showMandelbrot(job));
+        }
+
+        @Override
+        public void cancelled(RenderJob job) {
+            Gdx.app.postRunnable(() -> releaseBuffers(job));
+        }
+
+        @Override
+        public void failed(RenderJob job, Throwable throwable) {
+            Gdx.app.error(MandelbrotScreen.class.getSimpleName(), "Warn", throwable);
+            Gdx.app.postRunnable(() -> releaseBuffers(job));
+        }
+    };
     int maxiterations = 1000;
     int colorRGBA = 0xaaaaaaFF;
-    long zoom = 1;
+    double zoom = 1;
 
     Vector2 size;
     Vector2 viewPort = new Vector2();
 
-    double xOffset;
-    double yOffset;
-    long zoomFactor = 1;
+    BigDecimal xOffset = BigDecimal.ZERO;
+    BigDecimal yOffset = BigDecimal.ZERO;
+    double zoomFactor = 1;
+    /**
+     * Last position of the pointer while the image is dragged.
+     */
+    int dragX;
+    int dragY;
+    boolean dragged;
 
     float fpsCounter;
     float timer;
@@ -89,12 +204,28 @@ public final class MandelbrotScreen implements Screen {
     Label coordinatesLabel;
     Label zoomLabel;
     Label zoomFactorLabel;
+    Label renderLabel;
+    Label budgetLabel;
     Label errorLabelInDialog;
     TextField hexRGBATextField;
     TextField iterationsTextField;
+    TextField threadsTextField;
+    TextField budgetTextField;
     Dialog changeColorDialog;
 
     public MandelbrotScreen() {
+        renderer.setTileCache(tileCache);
+        try {
+            tileStore = TileStore.open(Gdx.files.external(TILE_STORE_DIRECTORY).file().toPath(), TILE_STORE_BYTES);
+            renderer.setTileStore(tileStore);
+        } catch (IOException ex) {
+            Gdx.app.error(MandelbrotScreen.class.getSimpleName(), "Warn", ex);
+        }
+        try {
+            metricsLog = new RenderMetricsLog(Gdx.files.external(METRICS_FILE).file().toPath());
+        } catch (IOException ex) {
+            Gdx.app.error(MandelbrotScreen.class.getSimpleName(), "Warn", ex);
+        }
         initMandelbrot();
     }
 
@@ -110,6 +241,8 @@ public final class MandelbrotScreen implements Screen {
         coordinatesLabel = new Label("(x,y)", AssetManager.INSTANCE.defaultSkin, "default-font", Color.GREEN);
         zoomLabel = new Label("Zoom: " + zoom, AssetManager.INSTANCE.defaultSkin, "default-font", Color.GREEN);
         zoomFactorLabel = new Label("Zoom factor: " + zoomFactor, AssetManager.INSTANCE.defaultSkin, "default-font", Color.GREEN);
+        renderLabel = new Label("Render: ...", AssetManager.INSTANCE.defaultSkin, "default-font", Color.GREEN);
+        budgetLabel = new Label("Budget: off", AssetManager.INSTANCE.defaultSkin, "default-font", Color.GREEN);
         Table table = new Table();
         table.setFillParent(true);
         table.row().expand().align(Align.topLeft);
@@ -121,6 +254,10 @@ public final class MandelbrotScreen implements Screen {
         labelContainer.add(zoomLabel).align(Align.left);
         labelContainer.row();
         labelContainer.add(zoomFactorLabel).align(Align.left);
+        labelContainer.row();
+        labelContainer.add(renderLabel).align(Align.left);
+        labelContainer.row();
+        labelContainer.add(budgetLabel).align(Align.left);
         table.add(labelContainer);
         stage.addActor(table);
         changeColorDialog = new Dialog("Change color", AssetManager.INSTANCE.defaultSkin);
@@ -149,10 +286,11 @@ public final class MandelbrotScreen implements Screen {
                         String hex = hexRGBATextField.getText().toUpperCase();
                         colorRGBA = (int) Long.parseLong(hex, 16);
                         maxiterations = Integer.parseInt(iterationsTextField.getText());
+                        renderer.setThreads(Integer.parseInt(threadsTextField.getText()));
+                        setBudget(Integer.parseInt(budgetTextField.getText()));
                         changeColorDialog.hide();
                         changeColorDialog.setVisible(false);
                         errorLabelInDialog.setText("");
-                        destroyMandelbrotPicture();
                         initMandelbrot();
                     } catch (Exception ex) {
                         Gdx.app.error(MandelbrotScreen.class.getSimpleName(), "Warn", ex);
@@ -168,12 +306,20 @@ public final class MandelbrotScreen implements Screen {
         });
         hexRGBATextField = new TextField(Integer.toHexString(colorRGBA), AssetManager.INSTANCE.defaultSkin);
         iterationsTextField = new TextField(String.valueOf(maxiterations), AssetManager.INSTANCE.defaultSkin);
+        threadsTextField = new TextField(String.valueOf(renderer.getThreads()), AssetManager.INSTANCE.defaultSkin);
+        budgetTextField = new TextField(String.valueOf(budget != null ? budgetMillis : 0), AssetManager.INSTANCE.defaultSkin);
         changeColorDialog.getContentTable().add(new Label("Max iterations:", AssetManager.INSTANCE.defaultSkin));
         changeColorDialog.getContentTable().add(iterationsTextField);
         changeColorDialog.getContentTable().row();
         changeColorDialog.getContentTable().add(new Label("HEX String color RGBA:", AssetManager.INSTANCE.defaultSkin));
         changeColorDialog.getContentTable().add(hexRGBATextField);
         changeColorDialog.getContentTable().row();
+        changeColorDialog.getContentTable().add(new Label("Render threads:", AssetManager.INSTANCE.defaultSkin));
+        changeColorDialog.getContentTable().add(threadsTextField);
+        changeColorDialog.getContentTable().row();
+        changeColorDialog.getContentTable().add(new Label("Time budget ms (0 = off):", AssetManager.INSTANCE.defaultSkin));
+        changeColorDialog.getContentTable().add(budgetTextField);
+        changeColorDialog.getContentTable().row();
         errorLabelInDialog = new Label("", AssetManager.INSTANCE.defaultSkin,"default-font",Color.RED);
         changeColorDialog.getContentTable().add(errorLabelInDialog);
         changeColorDialog.getButtonTable().add(cancelButton);
@@ -182,62 +328,275 @@ public final class MandelbrotScreen implements Screen {
 
     private void initMandelbrot() {
         size = new Vector2(Gdx.graphics.getWidth(), Gdx.graphics.getHeight());
-        mandelbrot = new Pixmap((int) size.x, (int) size.y, Pixmap.Format.RGBA8888);
         setMandelbrotPixel();
-        img = new Texture(mandelbrot);
     }
 
+    /**
+     * Starts rendering the current view in the background. A render of an
+     * older view which is still running is cancelled. The last finished image
+     * stays on screen until the new one is ready. After zooming a preview
+     * resampled from the shown image is displayed at once.
+     */
     public void setMandelbrotPixel() {
         int WIDTH = (int) size.x;
         int HEIGHT = (int) size.y;
-        double xLength = (Math.abs(X_END) + Math.abs(X_START));
-        double yLength = (Math.abs(Y_END) + Math.abs(Y_START));
-        for (int x = 0; x < WIDTH; x++) {
-            for (int y = 0; y < HEIGHT; y++) {
-                //realanteil
-                double a = ((((double) x / WIDTH) * xLength)) + X_START;
-                //Imaginaeranteil
-                double b = ((((double) y / HEIGHT) * yLength)) + Y_START;
-                a = a / zoom;
-                b = b / zoom;
-                if ((isZero(a) || isZero(b)) && DEBUG == true) {
-                    mandelbrot.drawPixel(x, y, 0x00FF00FF);
-                } else {
-                    int iters = iters(a + xOffset, b + yOffset);
-                    if (iters >= maxiterations) {
-                        mandelbrot.drawPixel(x, y, 0);
-                    } else {
-                        mandelbrot.drawPixel(x, y, colorRGBA >> iters);
-                    }
-                }
+        if (renderJob != null) {
+            renderJob.cancel();
+        }
+        if (mandelbrot == null || mandelbrot.width != WIDTH || mandelbrot.height != HEIGHT) {
+            destroyMandelbrotPicture();
+            mandelbrot = new MandelbrotImage(WIDTH, HEIGHT);
+        }
+        MandelbrotView view = new MandelbrotView(WIDTH, HEIGHT, xOffset, yOffset, zoom, maxiterations, colorRGBA, DEBUG);
+        IterationBuffer shown = shownJob != null ? shownJob.iterations : null;
+        if (budget != null) {
+            view = budgetedView(view, shown);
+        }
+        if (shown != null && view.sameArea(shown.getView()) && view.maxiterations <= shown.getView().maxiterations) {
+            renderJob = renderer.recolor(view, shown, obtainPixelBuffer(WIDTH * HEIGHT), renderListener);
+        } else if (shown != null && view.sameArea(shown.getView())) {
+            renderJob = renderer.resume(view, shown, obtainIterationBuffer(WIDTH, HEIGHT), obtainPixelBuffer(WIDTH * HEIGHT), renderListener);
+        } else if (shown != null && view.pixelOffset(shown.getView()) != null) {
+            renderJob = renderer.pan(view, shown, obtainIterationBuffer(WIDTH, HEIGHT), obtainPixelBuffer(WIDTH * HEIGHT), renderListener);
+        } else if (shown != null && shown.fits(WIDTH, HEIGHT)) {
+            renderJob = renderer.zoom(view, shown, obtainIterationBuffer(WIDTH, HEIGHT), obtainPixelBuffer(WIDTH * HEIGHT), isProgressive(view), renderListener);
+        } else {
+            renderJob = renderer.submit(view, obtainIterationBuffer(WIDTH, HEIGHT), obtainPixelBuffer(WIDTH * HEIGHT), isProgressive(view), renderListener);
+        }
+    }
+
+    /**
+     * Returns true if the view is rendered coarse to fine. In the time budget
+     * mode this depends on whether it fits into the budget.
+     */
+    private boolean isProgressive(MandelbrotView view) {
+        return budget != null ? budget.isProgressive(view) : renderer.isProgressive();
+    }
+
+    /**
+     * Returns the view with the maximum number of iterations of the time
+     * budget. Views which can be colored or panned from the shown image keep
+     * its maximum, since they are cheap anyway.
+     */
+    private MandelbrotView budgetedView(MandelbrotView view, IterationBuffer shown) {
+        budgetStart = System.nanoTime();
+        firstImageMillis = -1;
+        if (shown != null) {
+            MandelbrotView kept = view.withIterations(shown.getView().maxiterations);
+            if (kept.sameArea(shown.getView()) || kept.pixelOffset(shown.getView()) != null) {
+                return kept;
+            }
+        }
+        return budget.choose(view);
+    }
+
+    /**
+     * Switches the time budget mode off with 0 milliseconds or on with the
+     * given budget.
+     */
+    private void setBudget(int millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("The time budget must not be negative: " + millis);
+        }
+        if (millis == 0) {
+            budget = null;
+            budgetLabel.setText("Budget: off");
+        } else {
+            budgetMillis = millis;
+            budget = new IterationBudget(millis * 1000000L, BUDGET_MAX_ITERATIONS);
+        }
+        budgetTextField.setText(String.valueOf(millis));
+    }
+
+    /**
+     * Shows the maximum chosen by the time budget and the time the current
+     * view took so far.
+     */
+    private void updateBudgetLabel() {
+        MandelbrotView view = renderJob != null ? renderJob.view : shownJob != null ? shownJob.view : null;
+        if (view == null) {
+            return;
+        }
+        long millis = (System.nanoTime() - budgetStart) / 1000000;
+        String first = firstImageMillis < 0 ? millis + " ms" : firstImageMillis + " ms";
+        budgetLabel.setText("Budget " + budgetMillis + " ms: first image " + first + ", " + view.maxiterations + " iterations"
+                + (renderJob != null && firstImageMillis >= 0 ? ", raising for " + millis + " ms" : ""));
+    }
+
+    /**
+     * Moves the view by whole pixels, so only the pixels which were not
+     * visible before have to be computed.
+     */
+    private void pan(int dx, int dy) {
+        xOffset = MandelbrotView.offset(xOffset, dx * (X_END - X_START) / Math.round(size.x) / zoom, zoom);
+        yOffset = MandelbrotView.offset(yOffset, dy * (Y_END - Y_START) / Math.round(size.y) / zoom, zoom);
+        initMandelbrot();
+    }
+
+    private int[] obtainPixelBuffer(int length) {
+        int[] buffer;
+        while ((buffer = pixelBuffers.poll()) != null) {
+            if (buffer.length == length) {
+                return buffer;
             }
         }
+        return new int[length];
     }
 
-    private int iters(double real, double imag) {
-        int i;
-        double x = 0;
-        double y = 0;
-        double x2;
-        double z;
-        for (i = 0; i < maxiterations; i++) {
-            z = Math.sqrt(x * x + y * y);
-            if (z > 2) {
-                break;
+    private IterationBuffer obtainIterationBuffer(int width, int height) {
+        IterationBuffer buffer;
+        while ((buffer = iterationBuffers.poll()) != null) {
+            if (buffer.fits(width, height)) {
+                return buffer;
             }
-            x2 = (x * x - y * y) + real;
-            y = (2 * x * y) + imag;
-            x = x2;
         }
-        return i;
+        return new IterationBuffer(width, height);
+    }
+
+    private void releaseBuffers(RenderJob job) {
+        pixelBuffers.add(job.pixels);
+        if (job.isComputing()) {
+            iterationBuffers.add(job.iterations);
+        }
+    }
+
+    private void showMandelbrot(RenderJob job) {
+        if (job != renderJob) {
+            releaseBuffers(job);
+            return;
+        }
+        uploadDirtyTiles(job);
+        renderJob = null;
+        long pixels = (long) job.view.width * job.view.height;
+        Gdx.app.debug(MandelbrotScreen.class.getSimpleName(), "rendered " + job.view + " in " + job.getDurationMillis() + " ms on " + renderer.getThreads() + " threads, "
+                + job.getComputedPixels() + " of " + pixels + " pixels computed, " + (pixels - job.getComputedPixels()) + " saved");
+        if (job.getAntiAliasingSamples() > 0) {
+            Gdx.app.debug(MandelbrotScreen.class.getSimpleName(), job.getAntiAliasedPixels() + " edge pixels anti-aliased with " + job.getExtraSamples() + " extra samples, "
+                    + pixels * (job.getAntiAliasingSamples() - 1) + " with full supersampling");
+        }
+        if (job.getReferences() > 0) {
+            Gdx.app.debug(MandelbrotScreen.class.getSimpleName(), job.getReferences() + " reference orbits, " + job.getSkippedIterations() + " iterations skipped by series approximation, "
+                    + job.getGlitchedPixels() + " glitched pixels computed again");
+        }
+        if (job.isComputing()) {
+            Gdx.app.debug(MandelbrotScreen.class.getSimpleName(), job.getCachedTiles() + " tiles from the cache, " + tileCache + ", " + tileStore);
+        }
+        if (tileStore != null && tileStore.getFailure() != null && tileStore.getFailure() != reportedStoreFailure) {
+            reportedStoreFailure = tileStore.getFailure();
+            Gdx.app.error(MandelbrotScreen.class.getSimpleName(), "Warn", reportedStoreFailure);
+        }
+        showMetrics(job);
+        if (shownJob != null && shownJob.iterations != job.iterations) {
+            iterationBuffers.add(shownJob.iterations);
+        }
+        shownJob = job;
+        pixelBuffers.add(job.pixels);
+        if (budget != null) {
+            raiseIterations(job);
+        }
+    }
+
+    /**
+     * Lets the time budget learn from the finished job and continues the
+     * orbits of its capped pixels with a higher maximum in the background if
+     * enough pixels escaped close to its maximum.
+     */
+    private void raiseIterations(RenderJob job) {
+        budget.record(job);
+        if (firstImageMillis < 0) {
+            firstImageMillis = (System.nanoTime() - budgetStart) / 1000000;
+        }
+        MandelbrotView raised = budget.raise(job);
+        if (raised != null) {
+            renderJob = renderer.resume(raised, job.iterations, obtainIterationBuffer(raised.width, raised.height), obtainPixelBuffer(raised.width * raised.height), renderListener);
+        }
+        updateBudgetLabel();
+    }
+
+    /**
+     * Uploads the newest image of the Julia preview if there is one.
+     */
+    private void updateJuliaPreview() {
+        JuliaPreview.Frame frame = juliaPreview.poll();
+        if (frame == null) {
+            return;
+        }
+        if (frame.refined) {
+            if (juliaFullImage == null) {
+                juliaFullImage = new MandelbrotImage(frame.width, frame.height);
+            }
+            juliaImage = juliaFullImage;
+        } else {
+            if (juliaLowImage == null) {
+                juliaLowImage = new MandelbrotImage(frame.width, frame.height);
+            }
+            juliaImage = juliaLowImage;
+        }
+        juliaImage.update(frame.pixels, new Tile(0, 0, frame.width, frame.height));
+    }
+
+    /**
+     * Shows the metrics of a finished render in the overlay and appends them
+     * to the metrics file.
+     */
+    private void showMetrics(RenderJob job) {
+        RenderMetrics metrics = job.getMetrics();
+        double seconds = job.getDurationNanos() / 1e9;
+        if (renderLabel != null) {
+            renderLabel.setText(String.format("Render: %d ms, CPU %d ms, %.1f Mpx/s, %.0f it/px, %.1f%% capped, upload %.1f ms",
+                    job.getDurationMillis(), metrics.getCpuNanos() / 1000000, seconds > 0 ? job.getComputedPixels() / seconds / 1e6 : 0,
+                    metrics.getMeanIterations(), metrics.getCappedShare() * 100, metrics.getUploadNanos() / 1e6)
+                    + (job.getAntiAliasingSamples() > 0 ? String.format(", AA %.1f%% of %dx", job.getSupersamplingShare() * 100, job.getAntiAliasingSamples()) : ""));
+        }
+        if (metricsLog != null) {
+            try {
+                metricsLog.write(job);
+            } catch (IOException ex) {
+                Gdx.app.error(MandelbrotScreen.class.getSimpleName(), "Warn", ex);
+                metricsLog = null;
+            }
+        }
+    }
+
+    /**
+     * Uploads the tiles the job has written since the last frame. While a
+     * progressive render is still running these hold its coarse passes.
+     */
+    private void uploadDirtyTiles(RenderJob job) {
+        TextureUploadEvent event = new TextureUploadEvent();
+        event.begin();
+        long start = System.nanoTime();
+        int tiles = 0;
+        Tile tile;
+        while ((tile = job.pollDirtyTile()) != null) {
+            mandelbrot.update(job.pixels, tile);
+            tiles++;
+        }
+        if (tiles > 0) {
+            job.getMetrics().addUpload(System.nanoTime() - start, tiles);
+            event.tiles = tiles;
+            event.commit();
+        }
     }
 
     @Override
     public void render(float delta) {
         Gdx.gl.glClear(GL20.GL_COLOR_BUFFER_BIT);
-        batch.begin();
-        batch.draw(img, 0, 0);
-        batch.end();
+        if (mandelbrot != null) {
+            if (renderJob != null) {
+                uploadDirtyTiles(renderJob);
+                if (budget != null) {
+                    updateBudgetLabel();
+                }
+            }
+            updateJuliaPreview();
+            batch.begin();
+            mandelbrot.draw(batch);
+            if (juliaVisible && juliaImage != null) {
+                juliaImage.draw(batch, size.x - JULIA_PREVIEW_WIDTH - JULIA_PREVIEW_MARGIN, JULIA_PREVIEW_MARGIN, JULIA_PREVIEW_WIDTH, JULIA_PREVIEW_HEIGHT);
+            }
+            batch.end();
+        }
         if (stage != null) {
             stage.act(delta);
             stage.draw();
@@ -258,19 +617,66 @@ public final class MandelbrotScreen implements Screen {
         inputMultiplexer.addProcessor(stage);
         inputMultiplexer.addProcessor(new InputAdapter() {
 
+            @Override
+            public boolean touchDown(int screenX, int screenY, int pointer, int button) {
+                dragX = screenX;
+                dragY = screenY;
+                dragged = false;
+                return false;
+            }
+
+            @Override
+            public boolean touchDragged(int screenX, int screenY, int pointer) {
+                if (changeColorDialog.isVisible()) {
+                    return true;
+                }
+                if (screenX != dragX || screenY != dragY) {
+                    dragged = true;
+                    pan(dragX - screenX, dragY - screenY);
+                    dragX = screenX;
+                    dragY = screenY;
+                }
+                return true;
+            }
+
             @Override
             public boolean touchUp(int screenX, int screenY, int pointer, int button) {
                 if (changeColorDialog.isVisible()) {
                     return true;
                 }
-                destroyMandelbrotPicture();
+                if (dragged) {
+                    dragged = false;
+                    return true;
+                }
                 int WIDTH = Math.round(size.x);
                 int HEIGHT = Math.round(size.y);
                 double xLength = Math.abs(X_END) + Math.abs(X_START);
                 double yLength = Math.abs(Y_END) + Math.abs(Y_START);
-                xOffset = xOffset + ((((double) (screenX - (int) viewPort.x * 2) / WIDTH) * xLength / zoom) + X_START / zoom);
-                yOffset = yOffset + ((((double) (screenY - (int) viewPort.y * 2) / HEIGHT) * yLength / zoom) + Y_START / zoom);
-                initMandelbrot();
+                // the clicked pixel moves to the pixel of the offset
+                int originX = (int) Math.round(-X_START / xLength * WIDTH);
+                int originY = (int) Math.round(-Y_START / yLength * HEIGHT);
+                pan(screenX - (int) viewPort.x * 2 - originX, screenY - (int) viewPort.y * 2 - originY);
+                return true;
+            }
+
+            @Override
+            public boolean keyDown(int keycode) {
+                if (changeColorDialog.isVisible()) {
+                    return false;
+                }
+                int stepX = Math.round(size.x / PAN_STEPS);
+                int stepY = Math.round(size.y / PAN_STEPS);
+                if (keycode == Input.Keys.LEFT) {
+                    pan(-stepX, 0);
+                } else if (keycode == Input.Keys.RIGHT) {
+                    pan(stepX, 0);
+                } else if (keycode == Input.Keys.UP) {
+                    pan(0, -stepY);
+                } else if (keycode == Input.Keys.DOWN) {
+                    pan(0, stepY);
+                } else {
+                    return false;
+                }
                 return true;
             }
 
@@ -278,14 +684,15 @@ public final class MandelbrotScreen implements Screen {
             public boolean mouseMoved(int screenX, int screenY) {
                 double xLength = Math.abs(X_END) + Math.abs(X_START);
                 double yLength = Math.abs(Y_END) + Math.abs(Y_START);
-                double xO = xOffset;
-                double yO = yOffset;
                 int WIDTH = Math.round(size.x);
                 int HEIGHT = Math.round(size.y);
-                xO = xO + ((((double) (screenX - (int) viewPort.x * 2) / WIDTH) * xLength / zoom) + X_START / zoom);
-                yO = yO + ((((double) (screenY - (int) viewPort.y * 2) / HEIGHT) * yLength / zoom) + Y_START / zoom);
+                BigDecimal xO = MandelbrotView.offset(xOffset, (((double) (screenX - (int) viewPort.x * 2) / WIDTH) * xLength / zoom) + X_START / zoom, zoom);
+                BigDecimal yO = MandelbrotView.offset(yOffset, (((double) (screenY - (int) viewPort.y * 2) / HEIGHT) * yLength / zoom) + Y_START / zoom, zoom);
                 Gdx.app.debug(MandelbrotScreen.class.getSimpleName(), "(x,y) " + xO + "," + yO);
                 coordinatesLabel.setText("(x,y) " + xO + "," + yO);
+                if (juliaVisible) {
+                    juliaPreview.request(xO.doubleValue(), yO.doubleValue(), colorRGBA, maxiterations);
+                }
                 return true;
             }
 
@@ -294,8 +701,7 @@ public final class MandelbrotScreen implements Screen {
                 if (changeColorDialog.isVisible()) {
                     return true;
                 }
-                destroyMandelbrotPicture();
-                zoom = (long) Math.max(1l, (zoom + (zoomFactor * amountY * -1)));
+                zoom = Math.max(1, (zoom + (zoomFactor * amountY * -1)));
                 Gdx.app.debug(MandelbrotScreen.class.getSimpleName(), "scrolled X: " + amountX + ", Y: " + amountY + " zoom: " + zoom);
                 zoomLabel.setText("Zoom: " + zoom);
                 initMandelbrot();
@@ -305,11 +711,10 @@ public final class MandelbrotScreen implements Screen {
             @Override
             public boolean keyUp(int keycode) {
                 if (keycode == Input.Keys.SPACE) {
-                    destroyMandelbrotPicture();
                     zoom = 1;
                     zoomFactor = 1;
-                    xOffset = 0;
-                    yOffset = 0;
+                    xOffset = BigDecimal.ZERO;
+                    yOffset = BigDecimal.ZERO;
                     maxiterations = 1000;
                     zoomLabel.setText("Zoom: " + zoom);
                     zoomFactorLabel.setText("Zoom factor: " + zoomFactor);
@@ -320,6 +725,38 @@ public final class MandelbrotScreen implements Screen {
                     zoomFactor = keycode == Input.Keys.PAGE_UP ? zoomFactor * 2 : Math.max(1, zoomFactor / 2);
                     Gdx.app.debug(MandelbrotScreen.class.getSimpleName(), "scrolled zoom factor: " + zoomFactor);
                     zoomFactorLabel.setText("Zoom factor: " + zoomFactor);
+                } else if (keycode == Input.Keys.B) {
+                    setBudget(budget == null ? budgetMillis : 0);
+                    Gdx.app.debug(MandelbrotScreen.class.getSimpleName(), "time budget: " + (budget != null ? budgetMillis + " ms" : "off"));
+                    initMandelbrot();
+                } else if (keycode == Input.Keys.P) {
+                    renderer.setProgressive(!renderer.isProgressive());
+                    Gdx.app.debug(MandelbrotScreen.class.getSimpleName(), "progressive rendering: " + renderer.isProgressive());
+                } else if (keycode == Input.Keys.S) {
+                    renderer.setSmoothColoring(!renderer.isSmoothColoring());
+                    Gdx.app.debug(MandelbrotScreen.class.getSimpleName(), "smooth coloring: " + renderer.isSmoothColoring());
+                    initMandelbrot();
+                } else if (keycode == Input.Keys.H) {
+                    renderer.setHistogramEqualization(!renderer.isHistogramEqualization());
+                    Gdx.app.debug(MandelbrotScreen.class.getSimpleName(), "histogram equalization: " + renderer.isHistogramEqualization());
+                    initMandelbrot();
+                } else if (keycode == Input.Keys.A) {
+                    renderer.setAntiAliasing(renderer.getAntiAliasing() > 0 ? 0 : ANTI_ALIASING_SAMPLES);
+                    Gdx.app.debug(MandelbrotScreen.class.getSimpleName(), "anti-aliasing: " + renderer.getAntiAliasing() + " samples");
+                    initMandelbrot();
+                } else if (keycode == Input.Keys.J) {
+                    juliaVisible = !juliaVisible;
+                    Gdx.app.debug(MandelbrotScreen.class.getSimpleName(), "julia preview: " + juliaVisible);
+                } else if (keycode == Input.Keys.M) {
+                    renderer.setSubdivision(!renderer.isSubdivision());
+                    Gdx.app.debug(MandelbrotScreen.class.getSimpleName(), "subdivision rendering: " + renderer.isSubdivision());
+                } else if (keycode == Input.Keys.V) {
+                    if (MandelbrotRenderer.isVectorAvailable()) {
+                        renderer.setVectorized(!renderer.isVectorized());
+                        Gdx.app.debug(MandelbrotScreen.class.getSimpleName(), "vectorized rendering: " + renderer.isVectorized());
+                    } else {
+                        Gdx.app.debug(MandelbrotScreen.class.getSimpleName(), "vectorized rendering is not available");
+                    }
                 } else if (keycode == Input.Keys.ENTER && !changeColorDialog.isVisible()) {
                     changeColorDialog.show(stage);
                     changeColorDialog.setVisible(true);
@@ -333,10 +770,6 @@ public final class MandelbrotScreen implements Screen {
         initMandelbrot();
     }
 
-    private boolean isZero(double value) {
-        return value == 0;
-    }
-
     @Override
     public void resize(int width, int height) {
         size = Scaling.stretch.apply(size.x, size.y, width, height);
@@ -353,18 +786,45 @@ public final class MandelbrotScreen implements Screen {
 
     @Override
     public void hide() {
+        if (renderJob != null) {
+            renderJob.cancel();
+            renderJob = null;
+        }
         destroyMandelbrotPicture();
     }
 
     @Override
     public void dispose() {
-        destroyMandelbrotPicture();
+        hide();
+        renderer.dispose();
+        if (tileStore != null) {
+            try {
+                tileStore.close();
+            } catch (IOException ex) {
+                Gdx.app.error(MandelbrotScreen.class.getSimpleName(), "Warn", ex);
+            }
+        }
+        juliaPreview.close();
+        for (MandelbrotImage image : new MandelbrotImage[]{juliaLowImage, juliaFullImage}) {
+            if (image != null) {
+                image.dispose();
+            }
+        }
+        if (metricsLog != null) {
+            try {
+                metricsLog.close();
+            } catch (IOException ex) {
+                Gdx.app.error(MandelbrotScreen.class.getSimpleName(), "Warn", ex);
+            }
+        }
         batch.dispose();
         stage.dispose();
     }
 
     public void destroyMandelbrotPicture() {
-        mandelbrot.dispose();
-        img.dispose();
+        if (mandelbrot != null) {
+            mandelbrot.dispose();
+            mandelbrot = null;
+        }
     }
 }
@@ -0,0 +1,157 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 Kai.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.mandelbrot.render;
+
+/**
+ * Adaptive anti-aliasing of a finished image. Only pixels whose iterations
+ * differ sharply from one of their four neighbours are sampled again: the
+ * area of such an edge pixel is split into a grid of cells and one point with
+ * a random offset is computed in every cell. The color of the pixel becomes
+ * the mean color of these samples. The iteration buffer keeps the original
+ * samples, so the image can still be continued, moved or cached.
+ * <p>
+ * The offsets are derived from a hash of the pixel and the sample, so an
+ * image is always anti-aliased the same way and no random generator is
+ * shared between the render threads.
+ *
+ * @author Kai
+ */
+final class AntiAliasing {
+
+    /**
+     * Neighbours are an edge if both escaped, one with more than this many
+     * iterations and more than 1 / {@link #EDGE_RATIO} of the iterations of
+     * the other one more, or if only one of them escaped.
+     */
+    static final int EDGE_ITERATIONS = 2;
+    static final int EDGE_RATIO = 4;
+
+    private AntiAliasing() {
+    }
+
+    /**
+     * Returns true if samples is 0 or a square of at least 4, the grid of a
+     * pixel.
+     */
+    static boolean isValidSamples(int samples) {
+        int grid = grid(samples);
+        return samples == 0 || (grid >= 2 && grid * grid == samples);
+    }
+
+    static int grid(int samples) {
+        return (int) Math.round(Math.sqrt(samples));
+    }
+
+    /**
+     * Samples the edge pixels of the tile again and colors them with the
+     * mean of their samples. The buffer receives the samples and must hold
+     * at least the number of samples of the job. Returns the number of
+     * pixels which were sampled.
+     */
+    static int sampleTile(RenderJob job, Tile tile, IterationBuffer samples) {
+        MandelbrotView view = job.view;
+        int[] iterations = job.iterations.iterations;
+        int width = view.width;
+        int height = view.height;
+        int max = view.maxiterations;
+        int grid = grid(job.samples);
+        double pixelWidth = view.pixelWidth();
+        double pixelHeight = view.pixelHeight();
+        int sampled = 0;
+        for (int y = tile.y; y < tile.y + tile.height && !job.isCancelled(); y++) {
+            int row = y * width;
+            for (int x = tile.x; x < tile.x + tile.width; x++) {
+                int index = row + x;
+                int iters = iterations[index];
+                boolean edge = (x > 0 && isEdge(iters, iterations[index - 1], max))
+                        || (x + 1 < width && isEdge(iters, iterations[index + 1], max))
+                        || (y > 0 && isEdge(iters, iterations[index - width], max))
+                        || (y + 1 < height && isEdge(iters, iterations[index + width], max));
+                if (!edge) {
+                    continue;
+                }
+                double real = view.real(x);
+                double imag = view.imag(y);
+                for (int i = 0; i < job.samples; i++) {
+                    long hash = hash(index, i);
+                    // the pixel covers half a pixel around its sample point in each direction
+                    double dx = ((i % grid) + (hash & 0xFFFF) / 65536.0) / grid - 0.5;
+                    double dy = ((i / grid) + (hash >>> 16 & 0xFFFF) / 65536.0) / grid - 0.5;
+                    MandelbrotRenderer.iteratePoint(job, real + dx * pixelWidth, imag + dy * pixelHeight, samples, i);
+                }
+                job.pixels[index] = meanColor(job, samples, index);
+                sampled++;
+            }
+        }
+        return sampled;
+    }
+
+    static boolean isEdge(int iterations, int neighbour, int maxiterations) {
+        if ((iterations >= maxiterations) != (neighbour >= maxiterations)) {
+            return true;
+        }
+        int difference = Math.abs(iterations - neighbour);
+        return difference > EDGE_ITERATIONS && difference * EDGE_RATIO > Math.min(iterations, neighbour);
+    }
+
+    /**
+     * Mean of the colors of the samples. Glitched samples of a perturbation
+     * are left out, the pixel keeps its color if all of them are glitched.
+     */
+    private static int meanColor(RenderJob job, IterationBuffer samples, int index) {
+        Palette palette = job.palette;
+        int r = 0;
+        int g = 0;
+        int b = 0;
+        int a = 0;
+        int count = 0;
+        for (int i = 0; i < job.samples; i++) {
+            if (samples.isGlitched(i)) {
+                continue;
+            }
+            int color = palette.color(samples, i, job.smooth);
+            r += color >>> 24;
+            g += color >>> 16 & 0xFF;
+            b += color >>> 8 & 0xFF;
+            a += color & 0xFF;
+            count++;
+        }
+        if (count == 0) {
+            return job.pixels[index];
+        }
+        return (r / count) << 24 | (g / count) << 16 | (b / count) << 8 | a / count;
+    }
+
+    /**
+     * Mixes the index of the pixel and the sample into 32 well distributed
+     * bits.
+     */
+    private static long hash(int index, int sample) {
+        long h = index * 0x9E3779B97F4A7C15L + sample * 0xC2B2AE3D27D4EB4FL;
+        h ^= h >>> 31;
+        h *= 0xBF58476D1CE4E5B9L;
+        h ^= h >>> 29;
+        return h;
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 Kai.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.mandelbrot.render;
+
+/**
+ * The escape time algorithm for many points at once. Implementations must
+ * store exactly the same results as {@link EscapeTime}.
+ * <p>
+ * The vectorized implementation needs the incubating Vector API of Java 17,
+ * which is only compiled with the opt-in build configuration and only
+ * available if the JVM was started with
+ * {@code --add-modules jdk.incubator.vector}. Otherwise the renderer falls
+ * back to the scalar kernel, see {@link MandelbrotRenderer#isVectorAvailable()}.
+ *
+ * @author Kai
+ */
+public interface BatchEscapeTime {
+
+    /**
+     * Iterates c = real[i] + imag[i] * i for every i < count and stores the
+     * results in the buffer at indexes[i].
+     */
+    void iterate(double[] real, double[] imag, int[] indexes, int count, int maxiterations, IterationBuffer buffer);
+
+    /**
+     * Number of points which are iterated together.
+     */
+    int lanes();
+}
@@ -0,0 +1,133 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 Kai.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.mandelbrot.render;
+
+/**
+ * The escape time algorithm in double-double arithmetic. Every number is the
+ * unevaluated sum of two doubles hi + lo, which gives about 106 bits of
+ * mantissa. This is used once plain doubles cannot tell neighbouring pixels
+ * apart, which happens at a zoom of about 1e13.
+ * <p>
+ * The closed form checks for the cardioid and the bulb are skipped, because
+ * deep zooms are usually right at their border where a double check is not
+ * reliable. Orbits which repeat exactly are still recognized. The orbit of a
+ * pixel which did not escape cannot be stored in an {@link IterationBuffer},
+ * so it is marked as {@link IterationBuffer#ESTIMATED} and iterated again when
+ * the maximum number of iterations is raised.
+ *
+ * @author Kai
+ */
+public final class DoubleDoubleEscapeTime {
+
+    private DoubleDoubleEscapeTime() {
+    }
+
+    /**
+     * Iterates c = (offsetXHi + offsetXLo + dx) + (offsetYHi + offsetYLo + dy) * i,
+     * where dx and dy are the small distances of the pixel from the offsets.
+     */
+    public static int iterate(double offsetXHi, double offsetXLo, double dx, double offsetYHi, double offsetYLo, double dy, int maxiterations, IterationBuffer buffer, int index) {
+        // c = offset + delta
+        double s = offsetXHi + dx;
+        double e = twoSumError(offsetXHi, dx, s) + offsetXLo;
+        double cr = s + e;
+        double crLo = e - (cr - s);
+        s = offsetYHi + dy;
+        e = twoSumError(offsetYHi, dy, s) + offsetYLo;
+        double ci = s + e;
+        double ciLo = e - (ci - s);
+
+        double x = 0;
+        double xLo = 0;
+        double y = 0;
+        double yLo = 0;
+        double checkX = 0;
+        double checkXLo = 0;
+        double checkY = 0;
+        double checkYLo = 0;
+        int period = 0;
+        int periodLimit = 8;
+        int i;
+        for (i = 0; i < maxiterations; i++) {
+            // x^2, y^2 and x*y as double-double
+            double xx = x * x;
+            double xxLo = Math.fma(x, x, -xx) + 2 * x * xLo;
+            double yy = y * y;
+            double yyLo = Math.fma(y, y, -yy) + 2 * y * yLo;
+            if (xx + yy > EscapeTime.BAILOUT) {
+                break;
+            }
+            double xy = x * y;
+            double xyLo = Math.fma(x, y, -xy) + x * yLo + xLo * y;
+
+            // re = x^2 - y^2 + cr
+            s = xx - yy;
+            e = twoSumError(xx, -yy, s) + xxLo - yyLo;
+            double t = s + e;
+            double tLo = e - (t - s);
+            s = t + cr;
+            e = twoSumError(t, cr, s) + tLo + crLo;
+            double nx = s + e;
+            double nxLo = e - (nx - s);
+
+            // im = 2xy + ci
+            s = 2 * xy + ci;
+            e = twoSumError(2 * xy, ci, s) + 2 * xyLo + ciLo;
+            y = s + e;
+            yLo = e - (y - s);
+            x = nx;
+            xLo = nxLo;
+
+            if (x == checkX && xLo == checkXLo && y == checkY && yLo == checkYLo) {
+                i = maxiterations;
+                x = Double.NaN;
+                y = Double.NaN;
+                break;
+            }
+            if (++period == periodLimit) {
+                period = 0;
+                periodLimit <<= 1;
+                checkX = x;
+                checkXLo = xLo;
+                checkY = y;
+                checkYLo = yLo;
+            }
+        }
+        if (buffer != null) {
+            boolean resumable = i < maxiterations || Double.isNaN(x);
+            buffer.iterations[index] = i;
+            buffer.real[index] = resumable ? x : IterationBuffer.ESTIMATED;
+            buffer.imag[index] = resumable ? y : IterationBuffer.ESTIMATED;
+        }
+        return i;
+    }
+
+    /**
+     * Rounding error of s = a + b (Knuth's two-sum).
+     */
+    static double twoSumError(double a, double b, double s) {
+        double bb = s - a;
+        return (a - (s - bb)) + (b - bb);
+    }
+}
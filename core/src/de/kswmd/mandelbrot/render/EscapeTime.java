@@ -0,0 +1,142 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 Kai.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.mandelbrot.render;
+
+/**
+ * The escape time algorithm for a single point of the complex plane.
+ * <p>
+ * Points inside the main cardioid and the period-2 bulb are recognized
+ * without iterating. Other points which never escape are recognized as soon
+ * as their orbit repeats exactly (Brent's cycle detection). Since an exactly
+ * repeating orbit can never leave the circle of radius 2, the number of
+ * iterations is always the same as the one of the plain loop.
+ * <p>
+ * The same loop iterates the points of Julia sets, which start at the point
+ * and add a fixed c in every iteration.
+ *
+ * @author Kai
+ */
+public final class EscapeTime {
+
+    /**
+     * Smallest squared magnitude whose square root is greater than 2.
+     * Comparing |z|^2 against it gives the same result as comparing the
+     * rounded |z| against 2.
+     */
+    static final double BAILOUT = Math.nextUp(4.0);
+
+    private EscapeTime() {
+    }
+
+    public static int iters(double real, double imag, int maxiterations) {
+        return iterate(real, imag, 0, 0, 0, maxiterations, null, 0);
+    }
+
+    /**
+     * Same as {@link #iters(double, double, int)} but stores the number of
+     * iterations and the last z in the buffer at index.
+     */
+    public static void iterate(double real, double imag, int maxiterations, IterationBuffer buffer, int index) {
+        iterate(real, imag, 0, 0, 0, maxiterations, buffer, index);
+    }
+
+    /**
+     * Continues the orbit of c = real + imag * i at iteration start with
+     * z = x + y * i. The result is the same as if the orbit was iterated from
+     * the beginning. If the point is known to never escape, NaN is stored as
+     * last z, see {@link IterationBuffer#isInterior(int)}.
+     */
+    public static int iterate(double real, double imag, int start, double x, double y, int maxiterations, IterationBuffer buffer, int index) {
+        if (start == 0 && isInterior(real, imag)) {
+            return interior(maxiterations, buffer, index);
+        }
+        return orbit(real, imag, start, x, y, maxiterations, buffer, index);
+    }
+
+    /**
+     * Iterates the point x + y * i of the Julia set of c = real + imag * i
+     * and stores the number of iterations and the last z in the buffer at
+     * index like {@link #iterate(double, double, int, IterationBuffer, int)}.
+     */
+    public static int iterateJulia(double x, double y, double real, double imag, int maxiterations, IterationBuffer buffer, int index) {
+        return orbit(real, imag, 0, x, y, maxiterations, buffer, index);
+    }
+
+    private static int orbit(double real, double imag, int start, double x, double y, int maxiterations, IterationBuffer buffer, int index) {
+        double checkX = x;
+        double checkY = y;
+        int period = 0;
+        int periodLimit = 8;
+        int i;
+        double xx;
+        double yy;
+        double x2;
+        for (i = start; i < maxiterations; i++) {
+            xx = x * x;
+            yy = y * y;
+            if (xx + yy > BAILOUT) {
+                break;
+            }
+            x2 = (xx - yy) + real;
+            y = (2 * x * y) + imag;
+            x = x2;
+            if (x == checkX && y == checkY) {
+                return interior(maxiterations, buffer, index);
+            }
+            if (++period == periodLimit) {
+                period = 0;
+                periodLimit <<= 1;
+                checkX = x;
+                checkY = y;
+            }
+        }
+        if (buffer != null) {
+            buffer.iterations[index] = i;
+            buffer.real[index] = x;
+            buffer.imag[index] = y;
+        }
+        return i;
+    }
+
+    /**
+     * Returns true if c lies in the main cardioid or in the period-2 bulb.
+     */
+    static boolean isInterior(double real, double imag) {
+        double yy = imag * imag;
+        double q = (real - 0.25) * (real - 0.25) + yy;
+        if (q * (q + (real - 0.25)) <= 0.25 * yy) {
+            return true;
+        }
+        return (real + 1) * (real + 1) + yy <= 0.0625;
+    }
+
+    private static int interior(int maxiterations, IterationBuffer buffer, int index) {
+        if (buffer != null) {
+            buffer.iterations[index] = maxiterations;
+            buffer.real[index] = Double.NaN;
+            buffer.imag[index] = Double.NaN;
+        }
+        return maxiterations;
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 Kai.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.mandelbrot.render;
+
+/**
+ * Chooses the maximum number of iterations of views so that their first
+ * image is finished within a time budget, and raises it afterwards while
+ * pixels still escape close to it.
+ * <p>
+ * The budget learns from every finished {@link RenderJob}: how many
+ * iterations per nanosecond the renderer manages at each precision, and how
+ * the iterations of the last image were distributed. The mean number of
+ * iterations per pixel at another maximum is estimated as the mean of the
+ * escaped pixels plus the share of capped pixels times that maximum. The
+ * maximum is always a power of two, so it changes rarely while zooming and
+ * the zoom can reuse the pixels of the shown image. Since the distribution
+ * usually shifts to more iterations while zooming in, the estimates are
+ * corrected by how far the estimate of the last chosen view was off.
+ * <p>
+ * A budget is not thread safe. It is meant to be used on the thread which
+ * starts the renders and receives the finished jobs.
+ *
+ * @author Kai
+ */
+public final class IterationBudget {
+
+    /**
+     * Bounds of the maximum the budget chooses for the first image.
+     */
+    public static final int MIN_ITERATIONS = 128;
+    public static final int DEFAULT_ITERATIONS = 1024;
+    /**
+     * The maximum is raised while at least this share of the pixels escaped
+     * with more than half of it.
+     */
+    static final double NEAR_CAP_SHARE = 0.0005;
+    /**
+     * The maximum of the first image grows at most by this factor compared
+     * to the last image, since the estimate gets worse the farther it is
+     * extrapolated.
+     */
+    static final int MAX_GROWTH = 4;
+    /**
+     * Jobs which computed less than this share of their pixels are too
+     * dominated by overhead to measure the speed of the renderer.
+     */
+    static final double MIN_MEASURED_SHARE = 0.25;
+    /**
+     * Bounds of the correction of the estimates.
+     */
+    static final double MIN_CORRECTION = 0.25;
+    static final double MAX_CORRECTION = 4;
+
+    private final long targetNanos;
+    private final int maxIterations;
+    private final double[] iterationsPerNano = new double[MandelbrotView.Precision.values().length];
+    private int lastIterations;
+    private double escapedIterations;
+    private double cappedShare;
+    private double correction = 1;
+    /**
+     * The last view returned by {@link #choose} and its estimated time.
+     */
+    private MandelbrotView chosen;
+    private long chosenNanos;
+
+    /**
+     * Creates a budget which finishes the first image of a view within the
+     * given time if possible and never goes beyond the given maximum.
+     */
+    public IterationBudget(long targetNanos, int maxIterations) {
+        if (targetNanos <= 0) {
+            throw new IllegalArgumentException("targetNanos must be positive: " + targetNanos);
+        }
+        if (maxIterations < MIN_ITERATIONS) {
+            throw new IllegalArgumentException("maxIterations must be at least " + MIN_ITERATIONS + ": " + maxIterations);
+        }
+        this.targetNanos = targetNanos;
+        this.maxIterations = maxIterations;
+    }
+
+    public long getTargetNanos() {
+        return targetNanos;
+    }
+
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    /**
+     * Returns the view with the highest maximum number of iterations whose
+     * image is estimated to be finished within the budget. The maximum of
+     * the given view is ignored.
+     */
+    public MandelbrotView choose(MandelbrotView view) {
+        double rate = iterationsPerNano[view.precision.ordinal()];
+        long iterations;
+        if (rate == 0 || lastIterations == 0) {
+            iterations = DEFAULT_ITERATIONS;
+        } else {
+            double perPixel = rate * targetNanos / correction / ((double) view.width * view.height);
+            iterations = cappedShare == 0 ? maxIterations : (long) ((perPixel - escapedIterations) / cappedShare);
+            iterations = Math.min(iterations, (long) lastIterations * MAX_GROWTH);
+        }
+        iterations = Math.max(MIN_ITERATIONS, Math.min(maxIterations, iterations));
+        chosen = view.withIterations(Math.min(maxIterations, Integer.highestOneBit((int) iterations)));
+        chosenNanos = estimateNanos(chosen);
+        return chosen;
+    }
+
+    /**
+     * Estimated time in nanoseconds to render the view from scratch or -1 if
+     * the budget has not seen a render at its precision yet.
+     */
+    public long estimateNanos(MandelbrotView view) {
+        double rate = iterationsPerNano[view.precision.ordinal()];
+        if (rate == 0 || lastIterations == 0) {
+            return -1;
+        }
+        double perPixel = escapedIterations + cappedShare * view.maxiterations;
+        return (long) (perPixel * view.width * view.height / rate * correction);
+    }
+
+    /**
+     * Returns true if the view is estimated to take longer than the budget,
+     * so it should be rendered with coarse to fine passes to show something
+     * in time.
+     */
+    public boolean isProgressive(MandelbrotView view) {
+        long estimate = estimateNanos(view);
+        return estimate < 0 || estimate > targetNanos;
+    }
+
+    /**
+     * Learns from a finished job. Jobs which continued the orbits of another
+     * job or computed only a few pixels only update the distribution of the
+     * iterations.
+     */
+    public void record(RenderJob job) {
+        RenderMetrics metrics = job.getMetrics();
+        if (!job.isComputing() || metrics.getMeanIterations() == 0) {
+            return;
+        }
+        if (job.view == chosen && chosenNanos > 0) {
+            double error = (double) job.getDurationNanos() / chosenNanos;
+            correction = Math.max(MIN_CORRECTION, Math.min(MAX_CORRECTION, correction * Math.sqrt(error)));
+            chosen = null;
+        }
+        int iterations = job.view.maxiterations;
+        lastIterations = iterations;
+        cappedShare = metrics.getCappedShare();
+        escapedIterations = Math.max(0, metrics.getMeanIterations() - cappedShare * iterations);
+        boolean resumed = job.source != null && job.source.view.sameArea(job.view);
+        long pixels = (long) job.view.width * job.view.height;
+        long nanos = job.getDurationNanos();
+        if (!resumed && nanos > 0 && job.getComputedPixels() >= pixels * MIN_MEASURED_SHARE) {
+            double rate = metrics.getMeanIterations() * job.getComputedPixels() / nanos;
+            int precision = job.view.precision.ordinal();
+            double last = iterationsPerNano[precision];
+            iterationsPerNano[precision] = last == 0 ? rate : (last + rate) / 2;
+        }
+    }
+
+    /**
+     * Returns the view of the finished job with twice its maximum number of
+     * iterations if enough pixels escaped close to its maximum, or null if a
+     * higher maximum would hardly change the image. An image which hardly has
+     * escaped pixels at all is raised once to see whether they escape later.
+     */
+    public MandelbrotView raise(RenderJob job) {
+        MandelbrotView view = job.view;
+        RenderMetrics metrics = job.getMetrics();
+        if (view.maxiterations >= maxIterations || metrics.getCappedShare() == 0) {
+            return null;
+        }
+        boolean resumed = job.source != null && job.source.view.sameArea(view);
+        boolean unknown = !resumed && 1 - metrics.getCappedShare() < NEAR_CAP_SHARE;
+        if (!unknown && metrics.getNearCapShare() < NEAR_CAP_SHARE) {
+            return null;
+        }
+        return view.withIterations((int) Math.min(maxIterations, 2L * view.maxiterations));
+    }
+
+    @Override
+    public String toString() {
+        return "IterationBudget{" + targetNanos / 1000000 + " ms, " + lastIterations + " iterations, " + escapedIterations + " escaped, " + cappedShare + " capped}";
+    }
+}
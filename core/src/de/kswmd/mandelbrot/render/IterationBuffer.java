@@ -0,0 +1,127 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 Kai.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.mandelbrot.render;
+
+/**
+ * The raw result of the escape time algorithm for every pixel of an image in
+ * row order. Colors are derived from it in a separate pass, so changing the
+ * colors does not require to iterate again. The orbits of pixels which did not
+ * escape end at the maximum number of iterations of the view, so they can be
+ * continued when the maximum is raised.
+ *
+ * @author Kai
+ */
+public final class IterationBuffer {
+
+    public final int width;
+    public final int height;
+    /**
+     * The view whose iterations the buffer holds. Set by the renderer when a
+     * job starts to compute into the buffer.
+     */
+    MandelbrotView view;
+    /**
+     * Number of iterations until the orbit escaped or the maximum number of
+     * iterations if it did not.
+     */
+    public final int[] iterations;
+    /**
+     * Last z of pixels whose iterations were not computed but taken from
+     * their surrounding pixels, see {@link #isEstimated(int)}.
+     */
+    public static final double ESTIMATED = Double.POSITIVE_INFINITY;
+    /**
+     * Last z of pixels whose perturbation lost its precision, so their
+     * iterations are only approximate, see {@link #isGlitched(int)}.
+     */
+    public static final double GLITCHED = Double.NEGATIVE_INFINITY;
+
+    /**
+     * Real part of the last z of the orbit. For escaped pixels this is the
+     * first z with |z| > 2. NaN marks pixels which are known to never escape,
+     * {@link #ESTIMATED} pixels whose orbit is unknown and {@link #GLITCHED}
+     * pixels which have to be computed again.
+     */
+    public final double[] real;
+    /**
+     * Imaginary part of the last z of the orbit.
+     */
+    public final double[] imag;
+
+    public IterationBuffer(int width, int height) {
+        this.width = width;
+        this.height = height;
+        int size = width * height;
+        iterations = new int[size];
+        real = new double[size];
+        imag = new double[size];
+    }
+
+    /**
+     * Absolute value of the last z of the pixel at index.
+     */
+    public double magnitude(int index) {
+        return Math.hypot(real[index], imag[index]);
+    }
+
+    public MandelbrotView getView() {
+        return view;
+    }
+
+    /**
+     * Returns true if the pixel at index is known to never escape, no matter
+     * how high the maximum number of iterations is.
+     */
+    public boolean isInterior(int index) {
+        return Double.isNaN(real[index]);
+    }
+
+    /**
+     * Returns true if the pixel at index did not escape and its orbit was not
+     * computed, so it cannot be continued.
+     */
+    public boolean isEstimated(int index) {
+        return real[index] == ESTIMATED;
+    }
+
+    /**
+     * Returns true if the pixel at index was computed with a reference orbit
+     * which does not fit it.
+     */
+    public boolean isGlitched(int index) {
+        return real[index] == GLITCHED;
+    }
+
+    /**
+     * Returns true if the pixel at index escaped before the maximum number of
+     * iterations of the view.
+     */
+    public boolean escaped(int index) {
+        return iterations[index] < view.maxiterations;
+    }
+
+    public boolean fits(int width, int height) {
+        return this.width == width && this.height == height;
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 Kai.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.mandelbrot.render;
+
+import java.io.Closeable;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Renders small images of the Julia set of a point, e.g. the point under the
+ * mouse, on a thread of its own. The preview never waits for the renderer of
+ * the main view and the main view never waits for it.
+ * <p>
+ * Only the newest point is rendered: a new request cancels the image which is
+ * being rendered after its current row. Every point is first rendered at a
+ * quarter of the resolution, which takes a few milliseconds. If no other
+ * point was requested after {@link #REFINE_DELAY_NANOS}, e.g. because the
+ * mouse stopped, it is rendered again at the full resolution.
+ * <p>
+ * The points are iterated by {@link EscapeTime#iterateJulia} into an
+ * {@link IterationBuffer} and colored with a smooth {@link Palette} like the
+ * main view.
+ *
+ * @author Kai
+ */
+public final class JuliaPreview implements Closeable {
+
+    /**
+     * Half the height of the area of the image. Its width follows from the
+     * aspect ratio.
+     */
+    public static final double RADIUS = 1.5;
+    public static final int LOW_RESOLUTION_DIVISOR = 4;
+    public static final long REFINE_DELAY_NANOS = 150_000_000L;
+    /**
+     * The maximum number of iterations of the main view is capped to this,
+     * since the details of deep zooms are too small for the preview anyway.
+     */
+    public static final int MAX_ITERATIONS = 500;
+
+    /**
+     * A finished image of the preview.
+     */
+    public static final class Frame {
+
+        public final double real;
+        public final double imag;
+        public final int width;
+        public final int height;
+        /**
+         * RGBA8888 values in row order.
+         */
+        public final int[] pixels;
+        /**
+         * True if the image has the full resolution.
+         */
+        public final boolean refined;
+        public final long nanos;
+
+        Frame(double real, double imag, int width, int height, int[] pixels, boolean refined, long nanos) {
+            this.real = real;
+            this.imag = imag;
+            this.width = width;
+            this.height = height;
+            this.pixels = pixels;
+            this.refined = refined;
+            this.nanos = nanos;
+        }
+    }
+
+    private static final class Request {
+
+        final double real;
+        final double imag;
+        final int colorRGBA;
+        final int maxiterations;
+
+        Request(double real, double imag, int colorRGBA, int maxiterations) {
+            this.real = real;
+            this.imag = imag;
+            this.colorRGBA = colorRGBA;
+            this.maxiterations = Math.min(MAX_ITERATIONS, maxiterations);
+        }
+    }
+
+    public final int width;
+    public final int height;
+    private final Object lock = new Object();
+    private final Thread worker;
+    /**
+     * The newest request which was not started yet. Guarded by lock.
+     */
+    private Request pending;
+    /**
+     * Counts the requests. An image is cancelled as soon as it changes.
+     */
+    private volatile long generation;
+    private volatile boolean closed;
+    private final AtomicReference<Frame> frame = new AtomicReference<>();
+    /**
+     * Only accessed by the worker.
+     */
+    private final IterationBuffer lowBuffer;
+    private final IterationBuffer fullBuffer;
+    private Palette palette;
+
+    public JuliaPreview(int width, int height) {
+        if (width < LOW_RESOLUTION_DIVISOR || height < LOW_RESOLUTION_DIVISOR) {
+            throw new IllegalArgumentException("preview too small: " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        lowBuffer = new IterationBuffer(width / LOW_RESOLUTION_DIVISOR, height / LOW_RESOLUTION_DIVISOR);
+        fullBuffer = new IterationBuffer(width, height);
+        worker = new Thread(this::work, "julia-preview");
+        worker.setDaemon(true);
+        worker.setPriority(Thread.NORM_PRIORITY - 1);
+        worker.start();
+    }
+
+    /**
+     * Requests the preview of the Julia set of c = real + imag * i and
+     * cancels the one which is being rendered. Never blocks.
+     */
+    public void request(double real, double imag, int colorRGBA, int maxiterations) {
+        synchronized (lock) {
+            pending = new Request(real, imag, colorRGBA, maxiterations);
+            generation++;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Returns the newest finished image if it was not returned before,
+     * otherwise null.
+     */
+    public Frame poll() {
+        return frame.getAndSet(null);
+    }
+
+    private void work() {
+        try {
+            while (!closed) {
+                Request request;
+                long requested;
+                synchronized (lock) {
+                    while (pending == null && !closed) {
+                        lock.wait();
+                    }
+                    request = pending;
+                    pending = null;
+                    requested = generation;
+                }
+                if (closed) {
+                    return;
+                }
+                if (!render(request, lowBuffer, requested, false) || !awaitRefinement(requested)) {
+                    continue;
+                }
+                render(request, fullBuffer, requested, true);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Waits until the refinement delay passed. Returns false if another
+     * point was requested in the meantime.
+     */
+    private boolean awaitRefinement(long requested) throws InterruptedException {
+        long deadline = System.nanoTime() + REFINE_DELAY_NANOS;
+        synchronized (lock) {
+            long remaining;
+            while (generation == requested && !closed && (remaining = deadline - System.nanoTime()) > 0) {
+                lock.wait(remaining / 1000000, (int) (remaining % 1000000));
+            }
+            return generation == requested && !closed;
+        }
+    }
+
+    /**
+     * Renders the request into the buffer and publishes the frame. Returns
+     * false if it was cancelled.
+     */
+    private boolean render(Request request, IterationBuffer buffer, long requested, boolean refined) {
+        long start = System.nanoTime();
+        if (palette == null || palette.colorRGBA != request.colorRGBA || palette.maxiterations != request.maxiterations) {
+            palette = new Palette(request.colorRGBA, request.maxiterations);
+        }
+        int w = buffer.width;
+        int h = buffer.height;
+        double pixelSize = 2 * RADIUS / h;
+        double left = -pixelSize * w / 2;
+        int[] pixels = new int[w * h];
+        for (int y = 0; y < h; y++) {
+            if (generation != requested || closed) {
+                return false;
+            }
+            // the rows run in the same direction as the rows of the main view
+            double imag = (y + 0.5) * pixelSize - RADIUS;
+            int row = y * w;
+            for (int x = 0; x < w; x++) {
+                EscapeTime.iterateJulia(left + (x + 0.5) * pixelSize, imag, request.real, request.imag, request.maxiterations, buffer, row + x);
+            }
+            palette.color(buffer, pixels, row, row + w, true);
+        }
+        frame.set(new Frame(request.real, request.imag, w, h, pixels, refined, System.nanoTime() - start));
+        return true;
+    }
+
+    /**
+     * Stops the worker. An image which is being rendered is cancelled.
+     */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+    }
+}
@@ -0,0 +1,1315 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 Kai.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.mandelbrot.render;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Computes the pixels of a {@link MandelbrotView} on a work stealing pool. The
+ * image is split into tiles which are rendered independently, so every thread
+ * writes to its own part of the buffers and no locking is needed. Renders
+ * can either block the caller or run in the background as a {@link RenderJob}.
+ * <p>
+ * The escape time of every pixel is stored in an {@link IterationBuffer} and
+ * each tile is colored from it afterwards. Only the colors of an image which
+ * was already computed can be changed with {@link #recolor}, which also covers
+ * a lower maximum number of iterations. A higher maximum only continues the
+ * pixels which did not escape yet, see {@link #resume}. A view which is moved
+ * by whole pixels only computes the pixels which were not visible before, see
+ * {@link #pan}. A view at another zoom is first previewed with the resampled
+ * pixels of the previous view, see {@link #zoom}.
+ * <p>
+ * The colors are looked up in a {@link Palette} which is only computed again
+ * when the color or the maximum number of iterations changes. If histogram
+ * equalization is enabled, the iterations of the finished image are counted
+ * by all render threads into counts of their own, which are merged into an
+ * equalized palette, and every tile is colored again with it.
+ * <p>
+ * With anti-aliasing the edge pixels of the finished image are sampled again
+ * on a jittered grid and get the mean color of the samples, see
+ * {@link AntiAliasing}.
+ * <p>
+ * Background renders can be progressive: the first pass computes every 4th
+ * pixel in both directions and fills the 4x4 block with it, the second pass
+ * does the same for the missing pixels of every 2nd row and column and the
+ * last pass computes the rest. Every pixel is computed exactly once.
+ * <p>
+ * Alternatively renders can use the subdivision algorithm of Mariani and
+ * Silver: only the border of a rectangle is computed and if all border pixels
+ * have the same iterations, the rectangle is filled with them. Otherwise it is
+ * split in two halves which are treated the same way. Since the Mandelbrot set
+ * is connected this is exact in theory, but filaments which are thinner than
+ * a pixel can be missed.
+ * <p>
+ * If the JVM provides the Vector API, the rows of views with
+ * {@link MandelbrotView.Precision#DOUBLE} are iterated with the vectorized
+ * kernel, see {@link BatchEscapeTime}.
+ * <p>
+ * Views with {@link MandelbrotView.Precision#PERTURBATION} first compute a
+ * reference orbit at the offsets of the view. After the last pass every
+ * glitched pixel is computed again against a reference orbit at one of them
+ * until no glitches are left or {@link #MAX_REFERENCES} orbits were used.
+ * <p>
+ * Background renders look up their tiles in the {@link TileCache} and then in
+ * the {@link TileStore} on disk if they are set before computing anything and
+ * store the computed tiles in them when they are finished.
+ *
+ * @author Kai
+ */
+public final class MandelbrotRenderer {
+
+    public static final int DEFAULT_TILE_SIZE = 64;
+
+    /**
+     * Distance between the pixels computed by each progressive pass.
+     */
+    static final int[] PROGRESSIVE_STEPS = {4, 2, 1};
+    static final int[] FULL_STEPS = {1};
+    static final int[] COLOR_STEPS = {};
+    /**
+     * Marks the pass which continues the orbits of the source buffer.
+     */
+    static final int RESUME_STEP = -1;
+    static final int[] RESUME_STEPS = {RESUME_STEP};
+    /**
+     * Marks the pass which computes the tiles by subdivision.
+     */
+    static final int SUBDIVIDE_STEP = -2;
+    static final int[] SUBDIVIDE_STEPS = {SUBDIVIDE_STEP};
+    /**
+     * Marks the pass which moves the pixels of the source buffer.
+     */
+    static final int PAN_STEP = -3;
+    static final int[] PAN_STEPS = {PAN_STEP};
+    /**
+     * Marks the pass which resamples the source buffer as preview.
+     */
+    static final int PREVIEW_STEP = -4;
+    static final int[] ZOOM_STEPS = {PREVIEW_STEP, 1};
+    static final int[] ZOOM_PROGRESSIVE_STEPS = {PREVIEW_STEP, 4, 2, 1};
+    static final int[] ZOOM_SUBDIVIDE_STEPS = {PREVIEW_STEP, SUBDIVIDE_STEP};
+    /**
+     * Share of a zoomed view which the source must show for a preview.
+     */
+    public static final double MIN_ZOOM_OVERLAP = 0.5;
+    /**
+     * Rectangles with a side of at most this many pixels are computed
+     * completely instead of being subdivided further.
+     */
+    static final int SUBDIVISION_MIN_SIZE = 4;
+    /**
+     * Maximum number of reference orbits per render with perturbation.
+     */
+    static final int MAX_REFERENCES = 32;
+    /**
+     * Number of glitched pixels which are computed again by one task.
+     */
+    static final int GLITCH_CHUNK_SIZE = 1024;
+    /**
+     * Minimum number of pixels per task which counts the histogram.
+     */
+    static final int HISTOGRAM_CHUNK_SIZE = 1 << 16;
+
+    private static final BatchEscapeTime VECTOR_KERNEL = loadVectorKernel();
+
+    private final int tileSize;
+    private int threads;
+    private ForkJoinPool pool;
+    private volatile boolean progressive = true;
+    private volatile boolean subdivision;
+    private volatile boolean vectorized = VECTOR_KERNEL != null;
+    private volatile TileCache tileCache;
+    private volatile TileStore tileStore;
+    private volatile boolean smoothColoring = true;
+    private volatile boolean equalization;
+    private volatile int antiAliasing;
+    /**
+     * The last palette which was used. Equalized palettes color the passes
+     * of the next render of the same color and maximum until its histogram
+     * is known.
+     */
+    private volatile Palette palette;
+    /**
+     * The last reference orbit at the offsets of a view. It is reused by
+     * views with the same offsets, like the bands of one image.
+     */
+    private volatile PerturbationReference lastReference;
+
+    public MandelbrotRenderer() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public MandelbrotRenderer(int threads) {
+        this(threads, DEFAULT_TILE_SIZE);
+    }
+
+    public MandelbrotRenderer(int threads, int tileSize) {
+        if (tileSize < 1) {
+            throw new IllegalArgumentException("tileSize must be positive: " + tileSize);
+        }
+        this.tileSize = tileSize;
+        setThreads(threads);
+    }
+
+    /**
+     * Sets the number of render threads. With one thread a blocking render
+     * runs serially on the calling thread. Jobs which are already running
+     * finish on the old threads. The threads are kept if their number does
+     * not change.
+     */
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        if (threads == this.threads && pool != null) {
+            return;
+        }
+        if (pool != null) {
+            pool.shutdown();
+        }
+        this.threads = threads;
+        this.pool = new ForkJoinPool(threads, MandelbrotRenderer::newWorkerThread, null, false);
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * Enables coarse to fine passes for jobs which are submitted afterwards.
+     */
+    public void setProgressive(boolean progressive) {
+        this.progressive = progressive;
+    }
+
+    public boolean isProgressive() {
+        return progressive;
+    }
+
+    /**
+     * Enables the subdivision algorithm for renders which are started
+     * afterwards. Subdivision renders are never progressive.
+     */
+    public void setSubdivision(boolean subdivision) {
+        this.subdivision = subdivision;
+    }
+
+    public boolean isSubdivision() {
+        return subdivision;
+    }
+
+    /**
+     * Enables the interpolation of the colors by the continuous escape time
+     * for renders which are started afterwards.
+     */
+    public void setSmoothColoring(boolean smoothColoring) {
+        this.smoothColoring = smoothColoring;
+    }
+
+    public boolean isSmoothColoring() {
+        return smoothColoring;
+    }
+
+    /**
+     * Enables the equalization of the palette for the histogram of each
+     * image for renders which are started afterwards.
+     */
+    public void setHistogramEqualization(boolean equalization) {
+        this.equalization = equalization;
+    }
+
+    public boolean isHistogramEqualization() {
+        return equalization;
+    }
+
+    /**
+     * Sets the number of samples per edge pixel of the anti-aliasing for
+     * renders which are started afterwards, 0 to disable it. The samples
+     * form a grid, so their number must be a square like 4, 9 or 16.
+     */
+    public void setAntiAliasing(int samples) {
+        if (!AntiAliasing.isValidSamples(samples)) {
+            throw new IllegalArgumentException("samples must be 0 or a square of at least 4: " + samples);
+        }
+        this.antiAliasing = samples;
+    }
+
+    public int getAntiAliasing() {
+        return antiAliasing;
+    }
+
+    /**
+     * Sets the cache for the tiles of background renders which are started
+     * afterwards or null to compute every tile.
+     */
+    public void setTileCache(TileCache tileCache) {
+        this.tileCache = tileCache;
+    }
+
+    public TileCache getTileCache() {
+        return tileCache;
+    }
+
+    /**
+     * Sets the store on disk for the tiles of background renders which are
+     * started afterwards or null. The store is not closed by the renderer.
+     */
+    public void setTileStore(TileStore tileStore) {
+        this.tileStore = tileStore;
+    }
+
+    public TileStore getTileStore() {
+        return tileStore;
+    }
+
+    /**
+     * Returns true if the vectorized kernel was compiled and the JVM was
+     * started with the Vector API.
+     */
+    public static boolean isVectorAvailable() {
+        return VECTOR_KERNEL != null;
+    }
+
+    /**
+     * Enables the vectorized kernel for renders which are started afterwards
+     * if it is available.
+     */
+    public void setVectorized(boolean vectorized) {
+        this.vectorized = vectorized;
+    }
+
+    public boolean isVectorized() {
+        return vectorized && VECTOR_KERNEL != null;
+    }
+
+    /**
+     * Renders the view into the iteration buffer and the pixels as RGBA8888
+     * values in row order. The pixel array must hold at least width * height
+     * values. Returns the finished job with its metrics.
+     */
+    public RenderJob render(MandelbrotView view, IterationBuffer iterations, int[] pixels) {
+        return render(view, iterations, pixels, null);
+    }
+
+    /**
+     * Renders the view like {@link #render(MandelbrotView, IterationBuffer,
+     * int[])} but keeps the pixels which are marked as known, e.g. because
+     * they were taken from another view which shows the same points. Their
+     * iterations and last z must already be in the iteration buffer. Renders
+     * with known pixels never use subdivision.
+     */
+    public RenderJob render(MandelbrotView view, IterationBuffer iterations, int[] pixels, boolean[] known) {
+        if (known != null && known.length < view.width * view.height) {
+            throw new IllegalArgumentException("known pixels do not cover " + view);
+        }
+        RenderJob job = newJob(view, iterations, pixels, null);
+        job.reused = known;
+        return render(job);
+    }
+
+    /**
+     * Computes only the iterations of the view like {@link
+     * #render(MandelbrotView, IterationBuffer, int[])}, for iterations which
+     * are colored elsewhere. Neither the histogram equalization nor the
+     * anti-aliasing is applied, since both work on the colors.
+     */
+    public RenderJob compute(MandelbrotView view, IterationBuffer iterations) {
+        RenderJob job = newJob(view, iterations, null, null);
+        job.equalize = false;
+        job.samples = 0;
+        return render(job);
+    }
+
+    private RenderJob render(RenderJob job) {
+        MandelbrotView view = job.view;
+        boolean[] known = job.reused;
+        int step = subdivision && known == null ? SUBDIVIDE_STEP : 1;
+        createReference(job);
+        if (threads == 1) {
+            runTile(job, new Tile(0, 0, view.width, view.height), step, 0);
+            correctGlitches(job);
+            if (job.equalize) {
+                equalize(job);
+            }
+            if (job.samples > 0) {
+                antiAlias(job);
+            }
+        } else {
+            pool.invoke(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    renderTiles(job, step, 0);
+                    correctGlitches(job);
+                    if (job.equalize) {
+                        equalize(job);
+                    }
+                    if (job.samples > 0) {
+                        antiAlias(job);
+                    }
+                }
+            });
+        }
+        job.finish();
+        return job;
+    }
+
+    /**
+     * Starts rendering the view in the background and returns immediately.
+     * The listener is told about the outcome on a render thread.
+     */
+    public RenderJob submit(MandelbrotView view, IterationBuffer iterations, int[] pixels, RenderListener listener) {
+        return submit(view, iterations, pixels, progressive, listener);
+    }
+
+    /**
+     * Starts rendering the view in the background like {@link
+     * #submit(MandelbrotView, IterationBuffer, int[], RenderListener)} but
+     * with or without coarse to fine passes regardless of
+     * {@link #isProgressive()}.
+     */
+    public RenderJob submit(MandelbrotView view, IterationBuffer iterations, int[] pixels, boolean progressive, RenderListener listener) {
+        int[] steps = subdivision ? SUBDIVIDE_STEPS : progressive ? PROGRESSIVE_STEPS : FULL_STEPS;
+        return execute(newJob(view, iterations, pixels, null), steps, listener);
+    }
+
+    /**
+     * Colors the pixels of a view in the background whose iterations were
+     * already computed. The view must show the same area as the view of the
+     * iteration buffer with at most its maximum number of iterations. The
+     * iteration buffer is only read.
+     */
+    public RenderJob recolor(MandelbrotView view, IterationBuffer iterations, int[] pixels, RenderListener listener) {
+        if (!view.sameArea(iterations.view) || view.maxiterations > iterations.view.maxiterations) {
+            throw new IllegalArgumentException(iterations.view + " cannot be recolored as " + view);
+        }
+        RenderJob job = new RenderJob(view, iterations, pixels, null, false);
+        setColors(job);
+        return execute(job, COLOR_STEPS, listener);
+    }
+
+    /**
+     * Renders a view in the background with a higher maximum number of
+     * iterations than the source buffer of the same area. Escaped pixels are
+     * copied and only the orbits of the other pixels are continued. The
+     * source buffer is only read.
+     */
+    public RenderJob resume(MandelbrotView view, IterationBuffer source, IterationBuffer iterations, int[] pixels, RenderListener listener) {
+        if (!view.sameArea(source.view) || view.maxiterations < source.view.maxiterations) {
+            throw new IllegalArgumentException(source.view + " cannot be resumed as " + view);
+        }
+        return execute(newJob(view, iterations, pixels, source), RESUME_STEPS, listener);
+    }
+
+    /**
+     * Renders a view in the background which is the view of the source buffer
+     * moved by whole pixels, see {@link MandelbrotView#pixelOffset}. The
+     * pixels which were visible before are copied and only the newly exposed
+     * rows and columns are computed. The source buffer is only read.
+     */
+    public RenderJob pan(MandelbrotView view, IterationBuffer source, IterationBuffer iterations, int[] pixels, RenderListener listener) {
+        int[] offset = view.pixelOffset(source.view);
+        if (offset == null) {
+            throw new IllegalArgumentException(source.view + " cannot be panned to " + view);
+        }
+        RenderJob job = newJob(view, iterations, pixels, source);
+        job.panX = offset[0];
+        job.panY = offset[1];
+        return execute(job, PAN_STEPS, listener);
+    }
+
+    /**
+     * Renders a view of the same size as the view of the source buffer in
+     * the background, usually at another zoom. The first pass resamples the
+     * source to the new view, so a preview is shown at once. Pixels which lie
+     * exactly on the grid of the source, e.g. every second pixel after
+     * doubling the zoom, are reused if both views have the same maximum
+     * number of iterations. The remaining pixels are computed tile by tile,
+     * coarse to fine if progressive rendering is on. Views which show less
+     * than {@link #MIN_ZOOM_OVERLAP} of the source are rendered like {@link
+     * #submit}, since most of their preview would be empty. The source buffer
+     * is only read.
+     */
+    public RenderJob zoom(MandelbrotView view, IterationBuffer source, IterationBuffer iterations, int[] pixels, RenderListener listener) {
+        return zoom(view, source, iterations, pixels, progressive, listener);
+    }
+
+    /**
+     * Zooms like {@link #zoom(MandelbrotView, IterationBuffer,
+     * IterationBuffer, int[], RenderListener)} with coarse to fine passes
+     * after the preview only if progressive is true.
+     */
+    public RenderJob zoom(MandelbrotView view, IterationBuffer source, IterationBuffer iterations, int[] pixels, boolean progressive, RenderListener listener) {
+        if (!source.fits(view.width, view.height)) {
+            throw new IllegalArgumentException(source.view + " cannot be zoomed to " + view);
+        }
+        if (view.overlap(source.view) < MIN_ZOOM_OVERLAP) {
+            return submit(view, iterations, pixels, progressive, listener);
+        }
+        RenderJob job = newJob(view, iterations, pixels, source);
+        if (!subdivision && view.maxiterations == source.view.maxiterations && view.precision == source.view.precision) {
+            job.reused = new boolean[view.width * view.height];
+        }
+        return execute(job, subdivision ? ZOOM_SUBDIVIDE_STEPS : progressive ? ZOOM_PROGRESSIVE_STEPS : ZOOM_STEPS, listener);
+    }
+
+    private RenderJob execute(RenderJob job, int[] steps, RenderListener listener) {
+        pool.execute(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                try {
+                    if (steps.length == 0 && !job.equalize) {
+                        renderTiles(job, 0, 0);
+                    } else if (job.cache != null || job.store != null) {
+                        loadCachedTiles(job);
+                    }
+                    int previousStep = 0;
+                    for (int step : steps) {
+                        if (step != PREVIEW_STEP && job.reference == null && !allTilesCached(job)) {
+                            createReference(job);
+                        }
+                        renderTiles(job, step, previousStep);
+                        if (job.isCancelled()) {
+                            break;
+                        }
+                        if (step > 1) {
+                            listener.progressed(job, step);
+                        }
+                        previousStep = step;
+                    }
+                    if (steps.length > 0) {
+                        correctGlitches(job);
+                    }
+                    if (job.equalize && !job.isCancelled()) {
+                        equalize(job);
+                    }
+                    if (job.samples > 0 && !job.isCancelled()) {
+                        antiAlias(job);
+                    }
+                    if ((job.cache != null || job.store != null) && !job.isCancelled()) {
+                        storeComputedTiles(job);
+                    }
+                } catch (RuntimeException ex) {
+                    listener.failed(job, ex);
+                    return;
+                }
+                if (job.isCancelled()) {
+                    listener.cancelled(job);
+                } else {
+                    job.finish();
+                    listener.finished(job);
+                }
+            }
+        });
+        return job;
+    }
+
+    /**
+     * Creates a job which computes the view into the iteration buffer. Jobs
+     * without pixels compute no colors.
+     */
+    private RenderJob newJob(MandelbrotView view, IterationBuffer iterations, int[] pixels, IterationBuffer source) {
+        if (!iterations.fits(view.width, view.height)) {
+            throw new IllegalArgumentException("iteration buffer does not fit " + view);
+        }
+        if (pixels != null && pixels.length < view.width * view.height) {
+            throw new IllegalArgumentException("pixel buffer too small for " + view);
+        }
+        iterations.view = view;
+        RenderJob job = new RenderJob(view, iterations, pixels, source, true);
+        job.cache = tileCache;
+        job.store = tileStore;
+        setColors(job);
+        if (view.precision == MandelbrotView.Precision.DOUBLE && isVectorized()) {
+            job.batch = VECTOR_KERNEL;
+        }
+        return job;
+    }
+
+    /**
+     * Sets the palette of the job, which is only computed if the last one
+     * does not fit its view.
+     */
+    private void setColors(RenderJob job) {
+        Palette last = palette;
+        job.smooth = smoothColoring;
+        job.equalize = equalization;
+        job.samples = antiAliasing;
+        if (last != null && last.fits(job.view) && (job.equalize || !last.isEqualized())) {
+            job.palette = last;
+        } else {
+            job.palette = new Palette(job.view.colorRGBA, job.view.maxiterations);
+            palette = job.palette;
+        }
+    }
+
+    /**
+     * Counts the iterations of the finished image of the job, equalizes its
+     * palette for them and colors every tile again. In a render thread the
+     * histogram is counted in chunks, each into counts of its own, which are
+     * merged afterwards.
+     */
+    private void equalize(RenderJob job) {
+        MandelbrotView view = job.view;
+        IterationBuffer buffer = job.iterations;
+        Palette previous = job.palette;
+        int size = view.width * view.height;
+        int chunks = ForkJoinTask.inForkJoinPool() ? Math.max(1, Math.min(threads, size / HISTOGRAM_CHUNK_SIZE)) : 1;
+        int[][] counts = new int[chunks][view.maxiterations];
+        if (chunks == 1) {
+            previous.count(buffer, 0, size, counts[0]);
+        } else {
+            List<RecursiveAction> tasks = new ArrayList<>(chunks);
+            for (int i = 0; i < chunks; i++) {
+                int[] chunkCounts = counts[i];
+                int from = (int) ((long) size * i / chunks);
+                int to = (int) ((long) size * (i + 1) / chunks);
+                tasks.add(new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        previous.count(buffer, from, to, chunkCounts);
+                    }
+                });
+            }
+            ForkJoinTask.invokeAll(tasks);
+            for (int i = 1; i < chunks; i++) {
+                int[] chunkCounts = counts[i];
+                for (int j = 0; j < chunkCounts.length; j++) {
+                    counts[0][j] += chunkCounts[j];
+                }
+            }
+        }
+        job.palette = previous.equalize(counts[0]);
+        palette = job.palette;
+        if (job.isCancelled()) {
+            return;
+        }
+        List<Tile> tiles = Tile.split(view.width, view.height, tileSize);
+        if (!ForkJoinTask.inForkJoinPool()) {
+            for (Tile tile : tiles) {
+                colorTile(job, tile);
+                job.markDirty(tile);
+            }
+            return;
+        }
+        List<RecursiveAction> tasks = new ArrayList<>(tiles.size());
+        for (Tile tile : tiles) {
+            tasks.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    colorTile(job, tile);
+                    job.markDirty(tile);
+                }
+            });
+        }
+        ForkJoinTask.invokeAll(tasks);
+    }
+
+    /**
+     * Samples the edge pixels of the finished image of the job again, tile
+     * by tile. Jobs which only color need the reference orbit of the view
+     * for it.
+     */
+    private void antiAlias(RenderJob job) {
+        if (job.reference == null) {
+            createReference(job);
+            if (job.view.precision == MandelbrotView.Precision.PERTURBATION && job.reference == null) {
+                return;
+            }
+        }
+        List<Tile> tiles = Tile.split(job.view.width, job.view.height, tileSize);
+        if (!ForkJoinTask.inForkJoinPool()) {
+            IterationBuffer samples = new IterationBuffer(job.samples, 1);
+            for (Tile tile : tiles) {
+                antiAliasTile(job, tile, samples);
+            }
+            return;
+        }
+        List<RecursiveAction> tasks = new ArrayList<>(tiles.size());
+        for (Tile tile : tiles) {
+            tasks.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    antiAliasTile(job, tile, new IterationBuffer(job.samples, 1));
+                }
+            });
+        }
+        ForkJoinTask.invokeAll(tasks);
+    }
+
+    private static void antiAliasTile(RenderJob job, Tile tile, IterationBuffer samples) {
+        long start = System.nanoTime();
+        long cpu = RenderMetrics.cpuTime();
+        int sampled = AntiAliasing.sampleTile(job, tile, samples);
+        if (sampled > 0) {
+            job.addAntiAliasedPixels(sampled);
+            job.markDirty(tile);
+        }
+        job.getMetrics().addTask(start, cpu, false);
+    }
+
+    /**
+     * Copies the tiles of the job which are in its cache or its store into
+     * the iteration buffer and colors them. Tiles from the store are added to
+     * the cache. The passes skip these tiles.
+     */
+    private void loadCachedTiles(RenderJob job) {
+        MandelbrotView view = job.view;
+        List<Tile> tiles = Tile.split(view.width, view.height, tileSize);
+        BigDecimal[] origin = TileCache.origin(view);
+        job.cacheKeys = new TileCache.Key[tiles.size()];
+        job.cachedTiles = new boolean[tiles.size()];
+        for (int i = 0; i < tiles.size() && !job.isCancelled(); i++) {
+            Tile tile = tiles.get(i);
+            TileCache.Key key = TileCache.key(view, origin, tile);
+            job.cacheKeys[i] = key;
+            boolean loaded = job.cache != null && job.cache.load(key, tile, job.iterations);
+            if (!loaded && job.store != null && job.store.load(key, tile, job.iterations)) {
+                loaded = true;
+                if (job.cache != null) {
+                    job.cache.store(key, tile, job.iterations);
+                }
+            }
+            if (loaded) {
+                job.cachedTiles[i] = true;
+                job.cachedTileCount++;
+                colorTile(job, tile);
+                job.markDirty(tile);
+            }
+        }
+    }
+
+    /**
+     * Stores the tiles which the job computed in its cache and its store.
+     */
+    private void storeComputedTiles(RenderJob job) {
+        if (job.cacheKeys == null || allTilesCached(job)) {
+            return;
+        }
+        List<Tile> tiles = Tile.split(job.view.width, job.view.height, tileSize);
+        for (int i = 0; i < tiles.size(); i++) {
+            if (job.cachedTiles[i]) {
+                continue;
+            }
+            if (job.cache != null) {
+                job.cache.store(job.cacheKeys[i], tiles.get(i), job.iterations);
+            }
+            if (job.store != null) {
+                job.store.store(job.cacheKeys[i], tiles.get(i), job.iterations);
+            }
+        }
+    }
+
+    private static boolean allTilesCached(RenderJob job) {
+        return job.cachedTiles != null && job.cachedTileCount == job.cachedTiles.length;
+    }
+
+    /**
+     * Computes the reference orbit at the offsets of a view which needs
+     * perturbation, unless the last one fits, and the number of iterations
+     * which can be skipped for all pixels.
+     */
+    private void createReference(RenderJob job) {
+        MandelbrotView view = job.view;
+        if (view.precision != MandelbrotView.Precision.PERTURBATION) {
+            return;
+        }
+        long start = System.nanoTime();
+        long cpu = RenderMetrics.cpuTime();
+        PerturbationReference reference = lastReference;
+        if (reference != null && reference.fits(view)) {
+            reference = reference.copy();
+        } else {
+            reference = PerturbationReference.compute(job, 0, 0);
+            job.getMetrics().addTask(start, cpu, false);
+            if (reference == null) {
+                return;
+            }
+            lastReference = reference;
+        }
+        int right = view.width - 1;
+        int bottom = view.height - 1;
+        double radius = Math.hypot(Math.max(Math.abs(view.real(0)), Math.abs(view.real(right))),
+                Math.max(Math.abs(view.imag(0)), Math.abs(view.imag(bottom))));
+        reference.approximateSeries(radius, new double[]{
+            view.real(0), view.imag(0),
+            view.real(right), view.imag(0),
+            view.real(0), view.imag(bottom),
+            view.real(right), view.imag(bottom)
+        });
+        job.reference = reference;
+        job.addReference(0);
+    }
+
+    /**
+     * Computes the glitched pixels again with a new reference orbit at the
+     * center of a glitch and colors the tiles which contain them. Every round
+     * fixes at least the pixel of the reference.
+     */
+    private void correctGlitches(RenderJob job) {
+        if (job.reference == null) {
+            return;
+        }
+        MandelbrotView view = job.view;
+        IterationBuffer buffer = job.iterations;
+        int width = view.width;
+        List<Tile> tiles = Tile.split(view.width, view.height, tileSize);
+        int columns = (view.width + tileSize - 1) / tileSize;
+        while (job.getReferences() < MAX_REFERENCES && !job.isCancelled()) {
+            int[] glitched = glitchedPixels(buffer);
+            if (glitched.length == 0) {
+                break;
+            }
+            int pixel = glitched[0];
+            for (int index : glitched) {
+                if (buffer.imag[index] < buffer.imag[pixel]) {
+                    pixel = index;
+                }
+            }
+            long referenceStart = System.nanoTime();
+            long referenceCpu = RenderMetrics.cpuTime();
+            PerturbationReference reference = PerturbationReference.compute(job, view.real(pixel % width), view.imag(pixel / width));
+            job.getMetrics().addTask(referenceStart, referenceCpu, false);
+            if (reference == null) {
+                break;
+            }
+            job.addReference(glitched.length);
+            List<RecursiveAction> tasks = new ArrayList<>();
+            for (int from = 0; from < glitched.length; from += GLITCH_CHUNK_SIZE) {
+                int start = from;
+                int end = Math.min(from + GLITCH_CHUNK_SIZE, glitched.length);
+                tasks.add(new RecursiveAction() {
+                    @Override
+                    protected void compute() {
+                        long startNanos = System.nanoTime();
+                        long cpu = RenderMetrics.cpuTime();
+                        for (int i = start; i < end; i++) {
+                            int index = glitched[i];
+                            PerturbationEscapeTime.iterate(reference, false, view.real(index % width), view.imag(index / width), view.maxiterations, buffer, index);
+                        }
+                        job.addComputedPixels(end - start);
+                        job.getMetrics().addTask(startNanos, cpu, false);
+                    }
+                });
+            }
+            invokeAll(tasks);
+            boolean[] dirty = new boolean[tiles.size()];
+            for (int index : glitched) {
+                dirty[(index / width / tileSize) * columns + (index % width) / tileSize] = true;
+            }
+            tasks.clear();
+            for (int i = 0; i < dirty.length; i++) {
+                if (dirty[i]) {
+                    Tile tile = tiles.get(i);
+                    tasks.add(new RecursiveAction() {
+                        @Override
+                        protected void compute() {
+                            colorTile(job, tile);
+                            job.markDirty(tile);
+                        }
+                    });
+                }
+            }
+            invokeAll(tasks);
+        }
+    }
+
+    private static int[] glitchedPixels(IterationBuffer buffer) {
+        int size = buffer.width * buffer.height;
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (buffer.isGlitched(i)) {
+                count++;
+            }
+        }
+        int[] glitched = new int[count];
+        for (int i = 0, j = 0; j < count; i++) {
+            if (buffer.isGlitched(i)) {
+                glitched[j++] = i;
+            }
+        }
+        return glitched;
+    }
+
+    /**
+     * Runs the tasks on the pool if called from one of its threads and
+     * serially otherwise.
+     */
+    private static void invokeAll(List<RecursiveAction> tasks) {
+        if (ForkJoinTask.inForkJoinPool()) {
+            ForkJoinTask.invokeAll(tasks);
+        } else {
+            for (RecursiveAction task : tasks) {
+                task.invoke();
+            }
+        }
+    }
+
+    /**
+     * Computes and colors all tiles. A step of 0 only colors them.
+     */
+    private void renderTiles(RenderJob job, int step, int previousStep) {
+        List<Tile> tiles = Tile.split(job.view.width, job.view.height, tileSize);
+        List<RecursiveAction> tasks = new ArrayList<>(tiles.size());
+        for (int i = 0; i < tiles.size(); i++) {
+            if (job.cachedTiles != null && job.cachedTiles[i]) {
+                continue;
+            }
+            Tile tile = tiles.get(i);
+            tasks.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    runTile(job, tile, step, previousStep);
+                }
+            });
+        }
+        ForkJoinTask.invokeAll(tasks);
+    }
+
+    /**
+     * Computes and colors the tile with one pass and adds its time to the
+     * metrics of the job.
+     */
+    private static void runTile(RenderJob job, Tile tile, int step, int previousStep) {
+        long start = System.nanoTime();
+        long cpu = RenderMetrics.cpuTime();
+        TileEvent event = new TileEvent();
+        event.begin();
+        computeTile(job, tile, step, previousStep);
+        if (!job.isCancelled()) {
+            colorTile(job, tile);
+            job.markDirty(tile);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.x = tile.x;
+            event.y = tile.y;
+            event.width = tile.width;
+            event.height = tile.height;
+            event.step = step;
+            event.commit();
+        }
+        job.getMetrics().addTask(start, cpu, true);
+    }
+
+    static void computeTile(RenderJob job, Tile tile, int step, int previousStep) {
+        if (step == RESUME_STEP) {
+            resumeTile(job, tile);
+        } else if (step == PAN_STEP) {
+            panTile(job, tile);
+        } else if (step == PREVIEW_STEP) {
+            previewTile(job, tile);
+        } else if (step == SUBDIVIDE_STEP) {
+            subdivideTile(job, tile);
+        } else if (step > 0) {
+            renderTile(job, tile, step, previousStep);
+        }
+    }
+
+    /**
+     * Computes every step-th pixel of the tile in both directions which was
+     * not already computed by the pass with previousStep and fills the block
+     * of step x step pixels starting at it. A previousStep of 0 means that no
+     * pixel was computed before.
+     */
+    static void renderTile(RenderJob job, Tile tile, int step, int previousStep) {
+        MandelbrotView view = job.view;
+        int[] iterations = job.iterations.iterations;
+        boolean[] reused = job.reused;
+        int width = view.width;
+        int height = view.height;
+        int startX = (tile.x + step - 1) / step * step;
+        int startY = (tile.y + step - 1) / step * step;
+        int columns = tile.width / step + 1;
+        int[] indexes = new int[columns];
+        double[] reals = job.batch == null ? null : new double[columns];
+        double[] imags = job.batch == null ? null : new double[columns];
+        int computed = 0;
+        for (int y = startY; y < tile.y + tile.height; y += step) {
+            if (job.isCancelled()) {
+                break;
+            }
+            boolean computedRow = previousStep > 0 && y % previousStep == 0;
+            int count = 0;
+            for (int x = startX; x < tile.x + tile.width; x += step) {
+                int index = y * width + x;
+                if ((!computedRow || x % previousStep != 0) && (reused == null || !reused[index])) {
+                    indexes[count++] = index;
+                }
+            }
+            computeRow(job, y, indexes, count, reals, imags);
+            computed += count;
+            if (step > 1) {
+                int blockHeight = Math.min(step, height - y);
+                for (int i = 0; i < count; i++) {
+                    int x = indexes[i] - y * width;
+                    int iters = iterations[indexes[i]];
+                    int blockWidth = Math.min(step, width - x);
+                    for (int by = y; by < y + blockHeight; by++) {
+                        int row = by * width;
+                        for (int bx = x; bx < x + blockWidth; bx++) {
+                            // Reused pixels are final, the last pass skips them.
+                            if (reused == null || !reused[row + bx]) {
+                                iterations[row + bx] = iters;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        job.addComputedPixels(computed);
+    }
+
+    /**
+     * Computes the pixels of row y at the given indexes, with the batch kernel
+     * if the job has one. The arrays reals and imags are scratch space for it.
+     */
+    private static void computeRow(RenderJob job, int y, int[] indexes, int count, double[] reals, double[] imags) {
+        MandelbrotView view = job.view;
+        int row = y * view.width;
+        if (job.batch != null) {
+            double imag = view.imag(y) + view.yOffsetHi;
+            for (int i = 0; i < count; i++) {
+                reals[i] = view.real(indexes[i] - row) + view.xOffsetHi;
+                imags[i] = imag;
+            }
+            job.batch.iterate(reals, imags, indexes, count, view.maxiterations, job.iterations);
+        } else {
+            for (int i = 0; i < count; i++) {
+                iteratePixel(job, indexes[i] - row, y, indexes[i]);
+            }
+        }
+    }
+
+    /**
+     * Copies the part of the tile which was visible in the source buffer and
+     * computes the rest.
+     */
+    static void panTile(RenderJob job, Tile tile) {
+        MandelbrotView view = job.view;
+        IterationBuffer source = job.source;
+        IterationBuffer buffer = job.iterations;
+        int width = view.width;
+        int height = view.height;
+        int dx = job.panX;
+        int dy = job.panY;
+        int[] indexes = new int[tile.width];
+        double[] reals = job.batch == null ? null : new double[tile.width];
+        double[] imags = job.batch == null ? null : new double[tile.width];
+        int computed = 0;
+        for (int y = tile.y; y < tile.y + tile.height; y++) {
+            if (job.isCancelled()) {
+                break;
+            }
+            int row = y * width;
+            int sourceY = y + dy;
+            int from = tile.x + tile.width;
+            int to = from;
+            if (sourceY >= 0 && sourceY < height) {
+                from = Math.max(tile.x, -dx);
+                to = Math.min(tile.x + tile.width, width - dx);
+            }
+            if (from < to) {
+                int sourceIndex = sourceY * width + from + dx;
+                System.arraycopy(source.iterations, sourceIndex, buffer.iterations, row + from, to - from);
+                System.arraycopy(source.real, sourceIndex, buffer.real, row + from, to - from);
+                System.arraycopy(source.imag, sourceIndex, buffer.imag, row + from, to - from);
+            }
+            int count = 0;
+            for (int x = tile.x; x < tile.x + tile.width; x++) {
+                if (x < from || x >= to) {
+                    indexes[count++] = row + x;
+                }
+            }
+            computeRow(job, y, indexes, count, reals, imags);
+            computed += count;
+        }
+        job.addComputedPixels(computed);
+    }
+
+    /**
+     * Fills the tile with the nearest pixels of the source buffer. Pixels
+     * outside of the source are shown as not escaping until they are
+     * computed. Pixels which lie on the grid of the source are copied with
+     * their last z and marked as reused.
+     */
+    static void previewTile(RenderJob job, Tile tile) {
+        MandelbrotView view = job.view;
+        IterationBuffer source = job.source;
+        MandelbrotView from = source.view;
+        IterationBuffer buffer = job.iterations;
+        boolean[] reused = job.reused;
+        int width = view.width;
+        double offsetX = view.xOffset.subtract(from.xOffset).doubleValue();
+        double offsetY = view.yOffset.subtract(from.yOffset).doubleValue();
+        for (int y = tile.y; y < tile.y + tile.height; y++) {
+            if (job.isCancelled()) {
+                break;
+            }
+            double sourceY = ((offsetY + view.imag(y)) * from.zoom - MandelbrotView.Y_START) * from.height / MandelbrotView.Y_LENGTH;
+            long nearestY = Math.round(sourceY);
+            boolean alignedY = Math.abs(sourceY - nearestY) <= MandelbrotView.PIXEL_TOLERANCE;
+            int row = y * width;
+            for (int x = tile.x; x < tile.x + tile.width; x++) {
+                int index = row + x;
+                double sourceX = ((offsetX + view.real(x)) * from.zoom - MandelbrotView.X_START) * from.width / MandelbrotView.X_LENGTH;
+                long nearestX = Math.round(sourceX);
+                if (nearestX < 0 || nearestX >= from.width || nearestY < 0 || nearestY >= from.height) {
+                    buffer.iterations[index] = view.maxiterations;
+                    buffer.real[index] = Double.NaN;
+                    buffer.imag[index] = Double.NaN;
+                    continue;
+                }
+                int sourceIndex = (int) nearestY * from.width + (int) nearestX;
+                buffer.iterations[index] = source.iterations[sourceIndex];
+                if (reused != null && alignedY && Math.abs(sourceX - nearestX) <= MandelbrotView.PIXEL_TOLERANCE) {
+                    buffer.real[index] = source.real[sourceIndex];
+                    buffer.imag[index] = source.imag[sourceIndex];
+                    reused[index] = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies the tile from the source buffer and continues the orbits which
+     * reached the maximum number of iterations of the source. Pixels which are
+     * known to never escape only get the new maximum.
+     */
+    static void resumeTile(RenderJob job, Tile tile) {
+        MandelbrotView view = job.view;
+        IterationBuffer source = job.source;
+        IterationBuffer buffer = job.iterations;
+        int start = source.view.maxiterations;
+        int width = view.width;
+        int computed = 0;
+        for (int y = tile.y; y < tile.y + tile.height; y++) {
+            if (job.isCancelled()) {
+                break;
+            }
+            int row = y * width;
+            System.arraycopy(source.iterations, row + tile.x, buffer.iterations, row + tile.x, tile.width);
+            System.arraycopy(source.real, row + tile.x, buffer.real, row + tile.x, tile.width);
+            System.arraycopy(source.imag, row + tile.x, buffer.imag, row + tile.x, tile.width);
+            for (int x = tile.x; x < tile.x + tile.width; x++) {
+                int index = row + x;
+                if (source.iterations[index] < start) {
+                    continue;
+                }
+                if (source.isInterior(index)) {
+                    buffer.iterations[index] = view.maxiterations;
+                } else if (source.isEstimated(index)) {
+                    iteratePixel(job, x, y, index);
+                    computed++;
+                } else {
+                    EscapeTime.iterate(view.real(x) + view.xOffsetHi, view.imag(y) + view.yOffsetHi, start, source.real[index], source.imag[index], view.maxiterations, buffer, index);
+                    computed++;
+                }
+            }
+        }
+        job.addComputedPixels(computed);
+    }
+
+    static void subdivideTile(RenderJob job, Tile tile) {
+        boolean[] computed = new boolean[tile.width * tile.height];
+        job.addComputedPixels(subdivide(job, tile, computed, tile.x, tile.y, tile.width, tile.height));
+    }
+
+    /**
+     * Computes the border of the rectangle and fills it if all border pixels
+     * are the same, otherwise splits it at its longer side. The halves share
+     * the pixels on the split line. Returns the number of computed pixels.
+     */
+    private static int subdivide(RenderJob job, Tile tile, boolean[] computed, int x0, int y0, int w, int h) {
+        if (job.isCancelled()) {
+            return 0;
+        }
+        int x1 = x0 + w - 1;
+        int y1 = y0 + h - 1;
+        int count = 0;
+        if (w <= SUBDIVISION_MIN_SIZE || h <= SUBDIVISION_MIN_SIZE) {
+            for (int y = y0; y <= y1; y++) {
+                for (int x = x0; x <= x1; x++) {
+                    count += computePixel(job, tile, computed, x, y);
+                }
+            }
+            return count;
+        }
+        for (int x = x0; x <= x1; x++) {
+            count += computePixel(job, tile, computed, x, y0);
+            count += computePixel(job, tile, computed, x, y1);
+        }
+        for (int y = y0 + 1; y < y1; y++) {
+            count += computePixel(job, tile, computed, x0, y);
+            count += computePixel(job, tile, computed, x1, y);
+        }
+        IterationBuffer buffer = job.iterations;
+        int width = job.view.width;
+        int reference = y0 * width + x0;
+        boolean uniform = true;
+        for (int x = x0; x <= x1 && uniform; x++) {
+            uniform = sameIterations(buffer, reference, y0 * width + x) && sameIterations(buffer, reference, y1 * width + x);
+        }
+        for (int y = y0 + 1; y < y1 && uniform; y++) {
+            uniform = sameIterations(buffer, reference, y * width + x0) && sameIterations(buffer, reference, y * width + x1);
+        }
+        if (uniform) {
+            fill(job, reference, x0 + 1, y0 + 1, x1 - 1, y1 - 1);
+            return count;
+        }
+        if (w >= h) {
+            int mid = x0 + w / 2;
+            count += subdivide(job, tile, computed, x0, y0, mid - x0 + 1, h);
+            count += subdivide(job, tile, computed, mid, y0, x1 - mid + 1, h);
+        } else {
+            int mid = y0 + h / 2;
+            count += subdivide(job, tile, computed, x0, y0, w, mid - y0 + 1);
+            count += subdivide(job, tile, computed, x0, mid, w, y1 - mid + 1);
+        }
+        return count;
+    }
+
+    private static int computePixel(RenderJob job, Tile tile, boolean[] computed, int x, int y) {
+        int local = (y - tile.y) * tile.width + (x - tile.x);
+        if (computed[local]) {
+            return 0;
+        }
+        computed[local] = true;
+        iteratePixel(job, x, y, y * job.view.width + x);
+        return 1;
+    }
+
+    private static boolean sameIterations(IterationBuffer buffer, int reference, int index) {
+        return buffer.iterations[index] == buffer.iterations[reference]
+                && buffer.isInterior(index) == buffer.isInterior(reference);
+    }
+
+    /**
+     * Fills the inside of a rectangle whose border pixels all have the
+     * iterations of the reference pixel. Escaped pixels get the last z of the
+     * reference pixel. Pixels which did not escape are either known to never
+     * escape or marked as estimated, so they are computed if the maximum
+     * number of iterations is raised.
+     */
+    private static void fill(RenderJob job, int reference, int fromX, int fromY, int toX, int toY) {
+        IterationBuffer buffer = job.iterations;
+        int width = job.view.width;
+        int iters = buffer.iterations[reference];
+        double real = buffer.real[reference];
+        double imag = buffer.imag[reference];
+        if (iters >= job.view.maxiterations && !buffer.isInterior(reference)) {
+            real = IterationBuffer.ESTIMATED;
+            imag = IterationBuffer.ESTIMATED;
+        }
+        for (int y = fromY; y <= toY; y++) {
+            int row = y * width;
+            for (int x = fromX; x <= toX; x++) {
+                buffer.iterations[row + x] = iters;
+                buffer.real[row + x] = real;
+                buffer.imag[row + x] = imag;
+            }
+        }
+    }
+
+    /**
+     * Computes the pixel at x, y of the view of the job with the kernel for
+     * the precision of the view.
+     */
+    static void iteratePixel(RenderJob job, int x, int y, int index) {
+        iteratePoint(job, job.view.real(x), job.view.imag(y), job.iterations, index);
+    }
+
+    /**
+     * Computes the point which is real + imag * i away from the offsets of
+     * the view of the job into the buffer at index.
+     */
+    static void iteratePoint(RenderJob job, double real, double imag, IterationBuffer buffer, int index) {
+        MandelbrotView view = job.view;
+        switch (view.precision) {
+            case DOUBLE:
+                EscapeTime.iterate(real + view.xOffsetHi, imag + view.yOffsetHi, view.maxiterations, buffer, index);
+                break;
+            case DOUBLE_DOUBLE:
+                DoubleDoubleEscapeTime.iterate(view.xOffsetHi, view.xOffsetLo, real, view.yOffsetHi, view.yOffsetLo, imag, view.maxiterations, buffer, index);
+                break;
+            default:
+                PerturbationEscapeTime.iterate(job.reference, true, real, imag, view.maxiterations, buffer, index);
+                break;
+        }
+    }
+
+    /**
+     * Colors the pixels of the tile from their iterations.
+     */
+    static void colorTile(RenderJob job, Tile tile) {
+        MandelbrotView view = job.view;
+        IterationBuffer buffer = job.iterations;
+        Palette palette = job.palette;
+        boolean smooth = job.smooth;
+        int[] pixels = job.pixels;
+        if (pixels == null) {
+            return;
+        }
+        int width = view.width;
+        for (int y = tile.y; y < tile.y + tile.height; y++) {
+            int row = y * width;
+            palette.color(buffer, pixels, row + tile.x, row + tile.x + tile.width, smooth);
+            if (view.debug) {
+                boolean axisRow = view.imag(y) == 0;
+                for (int x = tile.x; x < tile.x + tile.width; x++) {
+                    if (axisRow || view.real(x) == 0) {
+                        pixels[row + x] = 0x00FF00FF;
+                    }
+                }
+            }
+        }
+    }
+
+    public void dispose() {
+        pool.shutdownNow();
+    }
+
+    private static BatchEscapeTime loadVectorKernel() {
+        try {
+            return (BatchEscapeTime) Class.forName("de.kswmd.mandelbrot.render.VectorEscapeTime").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError ex) {
+            return null;
+        }
+    }
+
+    private static ForkJoinWorkerThread newWorkerThread(ForkJoinPool pool) {
+        ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        thread.setName("mandelbrot-render-" + thread.getPoolIndex());
+        return thread;
+    }
+}
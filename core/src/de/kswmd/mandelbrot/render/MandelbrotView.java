@@ -0,0 +1,271 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 Kai.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.mandelbrot.render;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+/**
+ * Immutable snapshot of everything that is needed to compute one image of the
+ * Mandelbrot set. A view is handed to the render threads, so it must never be
+ * changed after it was created.
+ * <p>
+ * The offsets are kept as BigDecimal, so they can hold coordinates far beyond
+ * the precision of a double. The view chooses the precision of the escape time
+ * kernel: as soon as a double cannot resolve neighbouring pixels anymore the
+ * orbits are iterated with double-double arithmetic and beyond that as
+ * perturbations of a reference orbit.
+ * <p>
+ * A view can also be a band of rows of a larger image, see {@link #band}, so
+ * images which do not fit into memory can be computed piece by piece.
+ *
+ * @author Kai
+ */
+public final class MandelbrotView {
+
+    public static final double X_START = -2f;
+    public static final double X_END = 1f;
+
+    public static final double Y_START = -1f;
+    public static final double Y_END = 1f;
+
+    public static final double X_LENGTH = Math.abs(X_END) + Math.abs(X_START);
+    public static final double Y_LENGTH = Math.abs(Y_END) + Math.abs(Y_START);
+
+    /**
+     * Double-double is used if the distance between two pixels is less than
+     * this many ulps of the coordinates. The orbit amplifies rounding errors,
+     * so plain doubles get blocky well before the pixels reach a single ulp.
+     */
+    static final double PRECISION_MARGIN = 256;
+    /**
+     * Perturbation is used if the distance between two pixels is less than
+     * this fraction of the double-double margin. Double-double has 53 more
+     * bits, but long orbits at deep zooms amplify its rounding errors far
+     * more than the margin allows for, and perturbation is faster anyway.
+     */
+    static final double PERTURBATION_MARGIN = 0x1p-20;
+    /**
+     * Offsets which differ by less than this fraction of a pixel from whole
+     * pixels are treated as whole pixels.
+     */
+    static final double PIXEL_TOLERANCE = 1e-3;
+
+    public enum Precision {
+        DOUBLE,
+        DOUBLE_DOUBLE,
+        PERTURBATION
+    }
+
+    public final int width;
+    public final int height;
+    public final BigDecimal xOffset;
+    public final BigDecimal yOffset;
+    public final double zoom;
+    public final int maxiterations;
+    public final int colorRGBA;
+    /**
+     * Draws the real and imaginary axis in green.
+     */
+    public final boolean debug;
+    public final Precision precision;
+
+    /**
+     * The offsets split into the nearest double and the remainder.
+     */
+    final double xOffsetHi;
+    final double xOffsetLo;
+    final double yOffsetHi;
+    final double yOffsetLo;
+    /**
+     * Height of the whole image and its row which is the first row of the
+     * view. They differ from the height and 0 only for bands.
+     */
+    final int imageHeight;
+    final int firstRow;
+
+    public MandelbrotView(int width, int height, BigDecimal xOffset, BigDecimal yOffset, double zoom, int maxiterations, int colorRGBA, boolean debug) {
+        this(width, height, xOffset, yOffset, zoom, maxiterations, colorRGBA, debug, height, 0);
+    }
+
+    private MandelbrotView(int width, int height, BigDecimal xOffset, BigDecimal yOffset, double zoom, int maxiterations, int colorRGBA, boolean debug, int imageHeight, int firstRow) {
+        this.width = width;
+        this.height = height;
+        this.imageHeight = imageHeight;
+        this.firstRow = firstRow;
+        this.xOffset = xOffset;
+        this.yOffset = yOffset;
+        this.zoom = zoom;
+        this.maxiterations = maxiterations;
+        this.colorRGBA = colorRGBA;
+        this.debug = debug;
+        xOffsetHi = xOffset.doubleValue();
+        xOffsetLo = xOffset.subtract(new BigDecimal(xOffsetHi)).doubleValue();
+        yOffsetHi = yOffset.doubleValue();
+        yOffsetLo = yOffset.subtract(new BigDecimal(yOffsetHi)).doubleValue();
+        double pixelSize = Math.min(X_LENGTH / width, Y_LENGTH / imageHeight) / zoom;
+        double magnitude = Math.max(Math.abs(xOffsetHi) + X_LENGTH / zoom, Math.abs(yOffsetHi) + Y_LENGTH / zoom);
+        double margin = Math.ulp(magnitude) * PRECISION_MARGIN;
+        if (pixelSize < margin * PERTURBATION_MARGIN) {
+            precision = Precision.PERTURBATION;
+        } else if (pixelSize < margin) {
+            precision = Precision.DOUBLE_DOUBLE;
+        } else {
+            precision = Precision.DOUBLE;
+        }
+    }
+
+    public MandelbrotView(int width, int height, double xOffset, double yOffset, double zoom, int maxiterations, int colorRGBA, boolean debug) {
+        this(width, height, new BigDecimal(xOffset), new BigDecimal(yOffset), zoom, maxiterations, colorRGBA, debug);
+    }
+
+    /**
+     * Returns the view of the rows y to y + rows - 1 of this view. The pixels
+     * of the band are exactly the pixels of these rows.
+     */
+    public MandelbrotView band(int y, int rows) {
+        if (y < 0 || rows < 1 || y + rows > height) {
+            throw new IllegalArgumentException("rows " + y + " to " + (y + rows - 1) + " are not part of " + this);
+        }
+        return new MandelbrotView(width, rows, xOffset, yOffset, zoom, maxiterations, colorRGBA, debug, imageHeight, firstRow + y);
+    }
+
+    /**
+     * Returns the view of the same area with another maximum number of
+     * iterations.
+     */
+    public MandelbrotView withIterations(int maxiterations) {
+        return new MandelbrotView(width, height, xOffset, yOffset, zoom, maxiterations, colorRGBA, debug, imageHeight, firstRow);
+    }
+
+    /**
+     * Precision which is needed to move an offset by less than a pixel at
+     * the given zoom.
+     */
+    public static MathContext mathContext(double zoom) {
+        return new MathContext(20 + (int) Math.ceil(Math.log10(Math.max(1, zoom))));
+    }
+
+    /**
+     * Moves the offset by delta, which is usually a distance in pixels
+     * divided by the zoom.
+     */
+    public static BigDecimal offset(BigDecimal offset, double delta, double zoom) {
+        return offset.add(new BigDecimal(delta), mathContext(zoom));
+    }
+
+    /**
+     * Real part of the pixel column x without the offset.
+     */
+    public double real(int x) {
+        double a = ((((double) x / width) * X_LENGTH)) + X_START;
+        return a / zoom;
+    }
+
+    /**
+     * Imaginary part of the pixel row y without the offset.
+     */
+    public double imag(int y) {
+        double b = ((((double) (firstRow + y) / imageHeight) * Y_LENGTH)) + Y_START;
+        return b / zoom;
+    }
+
+    /**
+     * Distance between two pixel columns.
+     */
+    public double pixelWidth() {
+        return X_LENGTH / width / zoom;
+    }
+
+    /**
+     * Distance between two pixel rows.
+     */
+    public double pixelHeight() {
+        return Y_LENGTH / imageHeight / zoom;
+    }
+
+    /**
+     * Returns by how many whole pixels this view is moved against the other
+     * view as {dx, dy}: pixel x, y of this view shows pixel x + dx, y + dy of
+     * the other view. Returns null if the views differ in anything but their
+     * offsets and colors, if they do not overlap or if the offsets do not
+     * differ by whole pixels.
+     */
+    public int[] pixelOffset(MandelbrotView other) {
+        if (other == null
+                || width != other.width
+                || height != other.height
+                || imageHeight != other.imageHeight
+                || firstRow != other.firstRow
+                || zoom != other.zoom
+                || maxiterations != other.maxiterations
+                || precision != other.precision) {
+            return null;
+        }
+        double dx = xOffset.subtract(other.xOffset).doubleValue() / pixelWidth();
+        double dy = yOffset.subtract(other.yOffset).doubleValue() / pixelHeight();
+        long x = Math.round(dx);
+        long y = Math.round(dy);
+        if (Math.abs(dx - x) > PIXEL_TOLERANCE || Math.abs(dy - y) > PIXEL_TOLERANCE || Math.abs(x) >= width || Math.abs(y) >= height) {
+            return null;
+        }
+        return new int[]{(int) x, (int) y};
+    }
+
+    /**
+     * Returns the share of the area of this view which the other view shows
+     * too, from 0 to 1.
+     */
+    public double overlap(MandelbrotView other) {
+        double dx = other.xOffset.subtract(xOffset).doubleValue();
+        double dy = other.yOffset.subtract(yOffset).doubleValue();
+        return overlap(real(0), real(width), dx + other.real(0), dx + other.real(other.width))
+                * overlap(imag(0), imag(height), dy + other.imag(0), dy + other.imag(other.height));
+    }
+
+    private static double overlap(double start, double end, double otherStart, double otherEnd) {
+        return Math.max(0, Math.min(end, otherEnd) - Math.max(start, otherStart)) / (end - start);
+    }
+
+    /**
+     * Returns true if both views show the same area with the same size. They
+     * may differ in their maximum number of iterations and their colors.
+     */
+    public boolean sameArea(MandelbrotView other) {
+        return other != null
+                && width == other.width
+                && height == other.height
+                && imageHeight == other.imageHeight
+                && firstRow == other.firstRow
+                && xOffset.compareTo(other.xOffset) == 0
+                && yOffset.compareTo(other.yOffset) == 0
+                && zoom == other.zoom;
+    }
+
+    @Override
+    public String toString() {
+        String size = imageHeight == height ? width + "x" + height : width + "x" + height + " at row " + firstRow + " of " + imageHeight;
+        return "MandelbrotView{" + size + ", offset=(" + xOffset + "," + yOffset + "), zoom=" + zoom + ", maxiterations=" + maxiterations + ", precision=" + precision + '}';
+    }
+}
@@ -0,0 +1,256 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 Kai.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.mandelbrot.render;
+
+/**
+ * Lookup table from the number of iterations of a pixel to its color. It is
+ * computed once per color and maximum number of iterations, so coloring a
+ * pixel is a table lookup.
+ * <p>
+ * The colors run through a cyclic gradient derived from the base color:
+ * dark, the base color, light, a complementary color and dark again. Without
+ * equalization the gradient repeats every {@link #CYCLE_ITERATIONS}
+ * iterations. An equalized palette instead spreads the gradient over the
+ * histogram of an image, so every color covers about the same number of its
+ * pixels no matter how its iterations are distributed.
+ * <p>
+ * With smooth coloring the color is interpolated between two entries by the
+ * continuous escape time n + 1 - log2(log2 |z|), which removes the bands
+ * between the iterations. Pixels which did not escape are transparent black.
+ *
+ * @author Kai
+ */
+public final class Palette {
+
+    /**
+     * Iterations per cycle of the gradient of palettes which are not
+     * equalized.
+     */
+    public static final int CYCLE_ITERATIONS = 64;
+    /**
+     * Cycles of the gradient over the histogram of an equalized palette.
+     */
+    public static final int EQUALIZED_CYCLES = 2;
+
+    /**
+     * log2 of the mantissas 1 + (i + 0.5) / 1024 for the approximation of
+     * the logarithms of smooth coloring.
+     */
+    private static final float[] LOG2_MANTISSA = new float[1024];
+    /**
+     * Weight 0 to 256 of the next color for log2 |z|^2 from 2 to 4 in steps
+     * of 1 / {@link #SMOOTH_RESOLUTION}. The weight is 0 above.
+     */
+    private static final int SMOOTH_RESOLUTION = 256;
+    private static final int[] SMOOTH_WEIGHTS = new int[2 * SMOOTH_RESOLUTION];
+
+    static {
+        for (int i = 0; i < LOG2_MANTISSA.length; i++) {
+            LOG2_MANTISSA[i] = (float) (Math.log(1 + (i + 0.5) / LOG2_MANTISSA.length) / Math.log(2));
+        }
+        for (int i = 0; i < SMOOTH_WEIGHTS.length; i++) {
+            // n + 1 - log2(log2 |z|) with log2 |z| = log2 |z|^2 / 2
+            double logSquared = 2 + (i + 0.5) / SMOOTH_RESOLUTION;
+            SMOOTH_WEIGHTS[i] = (int) Math.round(256 * (1 - Math.log(logSquared / 2) / Math.log(2)));
+        }
+    }
+
+    public final int colorRGBA;
+    public final int maxiterations;
+    private final boolean equalized;
+    /**
+     * Color of each number of iterations below the maximum and one more
+     * entry, so smooth coloring can always interpolate to the next one.
+     */
+    private final int[] colors;
+
+    /**
+     * Creates the palette of the color whose gradient repeats every
+     * {@link #CYCLE_ITERATIONS} iterations.
+     */
+    public Palette(int colorRGBA, int maxiterations) {
+        this(colorRGBA, maxiterations, null);
+    }
+
+    /**
+     * Creates the palette with the position of each number of iterations in
+     * cycles of the gradient or with the cycle of {@link #CYCLE_ITERATIONS}
+     * if positions is null.
+     */
+    private Palette(int colorRGBA, int maxiterations, double[] positions) {
+        if (maxiterations < 1) {
+            throw new IllegalArgumentException("maxiterations must be positive: " + maxiterations);
+        }
+        this.colorRGBA = colorRGBA;
+        this.maxiterations = maxiterations;
+        this.equalized = positions != null;
+        int[] stops = stops(colorRGBA);
+        colors = new int[maxiterations + 1];
+        for (int i = 0; i <= maxiterations; i++) {
+            double position = positions != null ? positions[i] : (double) i / CYCLE_ITERATIONS;
+            double scaled = (position - Math.floor(position)) * stops.length;
+            int stop = Math.min(stops.length - 1, (int) scaled);
+            colors[i] = blend(stops[stop], stops[(stop + 1) % stops.length], (int) ((scaled - stop) * 256));
+        }
+    }
+
+    /**
+     * Returns true if the palette is meant for the color and the maximum
+     * number of iterations of the view.
+     */
+    public boolean fits(MandelbrotView view) {
+        return colorRGBA == view.colorRGBA && maxiterations == view.maxiterations;
+    }
+
+    public boolean isEqualized() {
+        return equalized;
+    }
+
+    /**
+     * Adds the iterations of the escaped pixels from index from to index to
+     * of the buffer to the counts, which need at least maxiterations
+     * entries.
+     */
+    public void count(IterationBuffer buffer, int from, int to, int[] counts) {
+        int[] iterations = buffer.iterations;
+        int max = maxiterations;
+        for (int i = from; i < to; i++) {
+            int iters = iterations[i];
+            if (iters < max) {
+                counts[iters]++;
+            }
+        }
+    }
+
+    /**
+     * Returns the palette of the same color which is equalized for the
+     * histogram of an image. counts[n] is the number of its escaped pixels
+     * with n iterations, see {@link #count}.
+     */
+    public Palette equalize(int[] counts) {
+        long total = 0;
+        for (int i = 0; i < maxiterations; i++) {
+            total += counts[i];
+        }
+        double[] positions = new double[maxiterations + 1];
+        long below = 0;
+        for (int i = 0; i <= maxiterations; i++) {
+            positions[i] = total == 0 ? 0 : EQUALIZED_CYCLES * (double) below / total;
+            if (i < maxiterations) {
+                below += counts[i];
+            }
+        }
+        return new Palette(colorRGBA, maxiterations, positions);
+    }
+
+    /**
+     * Returns the color of the pixel at index of the buffer.
+     */
+    public int color(IterationBuffer buffer, int index, boolean smooth) {
+        int iters = buffer.iterations[index];
+        if (iters >= maxiterations) {
+            return 0;
+        }
+        return smooth ? smoothColor(iters, buffer.real[index], buffer.imag[index]) : colors[iters];
+    }
+
+    /**
+     * Colors the pixels from index from to index to of the buffer.
+     */
+    public void color(IterationBuffer buffer, int[] pixels, int from, int to, boolean smooth) {
+        int[] iterations = buffer.iterations;
+        int[] colors = this.colors;
+        int max = maxiterations;
+        if (!smooth) {
+            for (int i = from; i < to; i++) {
+                int iters = iterations[i];
+                pixels[i] = iters >= max ? 0 : colors[iters];
+            }
+            return;
+        }
+        double[] real = buffer.real;
+        double[] imag = buffer.imag;
+        for (int i = from; i < to; i++) {
+            int iters = iterations[i];
+            pixels[i] = iters >= max ? 0 : smoothColor(iters, real[i], imag[i]);
+        }
+    }
+
+    /**
+     * Interpolates the color of an escaped pixel by the fraction of the
+     * continuous escape time.
+     */
+    private int smoothColor(int iters, double real, double imag) {
+        double squared = real * real + imag * imag;
+        if (!(squared > 4 && squared < Double.POSITIVE_INFINITY)) {
+            // estimated and glitched pixels have no last z to interpolate by
+            return colors[iters];
+        }
+        int step = (int) ((log2(squared) - 2) * SMOOTH_RESOLUTION);
+        if (step >= SMOOTH_WEIGHTS.length) {
+            return colors[iters];
+        }
+        return blend(colors[iters], colors[iters + 1], SMOOTH_WEIGHTS[Math.max(0, step)]);
+    }
+
+    /**
+     * Blends two RGBA colors with a weight of 0 to 256 for the second one.
+     */
+    static int blend(int first, int second, int weight) {
+        int inverse = 256 - weight;
+        int low = (((first & 0x00FF00FF) * inverse + (second & 0x00FF00FF) * weight) >>> 8) & 0x00FF00FF;
+        int high = ((first >>> 8 & 0x00FF00FF) * inverse + (second >>> 8 & 0x00FF00FF) * weight) & 0xFF00FF00;
+        return high | low;
+    }
+
+    /**
+     * Approximation of log2 with an error of less than 0.001 for positive
+     * finite values.
+     */
+    static float log2(double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        int exponent = (int) (bits >>> 52 & 0x7FF) - 1023;
+        return exponent + LOG2_MANTISSA[(int) (bits >>> 42 & 0x3FF)];
+    }
+
+    /**
+     * The colors the gradient runs through, derived from the base color.
+     */
+    private static int[] stops(int colorRGBA) {
+        int r = colorRGBA >>> 24;
+        int g = colorRGBA >>> 16 & 0xFF;
+        int b = colorRGBA >>> 8 & 0xFF;
+        int a = colorRGBA & 0xFF;
+        return new int[]{
+            rgba(r / 5, g / 5, b / 5, a),
+            colorRGBA,
+            rgba(r + (255 - r) * 4 / 5, g + (255 - g) * 4 / 5, b + (255 - b) * 4 / 5, a),
+            rgba(b * 4 / 5, r * 4 / 5, g * 4 / 5, a)
+        };
+    }
+
+    private static int rgba(int r, int g, int b, int a) {
+        return r << 24 | g << 16 | b << 8 | a;
+    }
+}
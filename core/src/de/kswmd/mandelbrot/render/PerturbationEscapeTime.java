@@ -0,0 +1,111 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 Kai.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.mandelbrot.render;
+
+/**
+ * The escape time algorithm for zooms beyond double-double precision. The
+ * orbit of a pixel is iterated as the difference dz to a
+ * {@link PerturbationReference}: dz' = 2 Z dz + dz^2 + dc. Both dz and dc are
+ * tiny, so plain doubles are enough no matter how deep the zoom is.
+ * <p>
+ * If the full orbit Z + dz gets much smaller than the reference orbit, the
+ * difference has lost its precision. Such pixels (and pixels which outlive an
+ * escaping reference) are marked as {@link IterationBuffer#GLITCHED} and have
+ * to be computed again with another reference. The imaginary part of a
+ * glitched pixel holds |Z + dz|^2 / |Z|^2 at the glitch: the pixel with the
+ * smallest value is the center of the glitch and the best next reference.
+ *
+ * @author Kai
+ */
+public final class PerturbationEscapeTime {
+
+    /**
+     * Pauldelbrot's criterion: a pixel is glitched if |Z + dz|^2 is less than
+     * this fraction of |Z|^2.
+     */
+    static final double GLITCH_TOLERANCE = 1e-6;
+
+    private PerturbationEscapeTime() {
+    }
+
+    /**
+     * Iterates the pixel which is dr + di * i away from the offsets of the
+     * view. The series approximation of the reference is used if useSeries is
+     * true.
+     */
+    public static int iterate(PerturbationReference reference, boolean useSeries, double dr, double di, int maxiterations, IterationBuffer buffer, int index) {
+        double dcr = dr - reference.dcr;
+        double dci = di - reference.dci;
+        double[] zReal = reference.real;
+        double[] zImag = reference.imag;
+        int length = reference.length;
+        double dzr = 0;
+        double dzi = 0;
+        int n = 0;
+        if (useSeries && reference.skip > 0) {
+            dzr = reference.seriesReal(dcr, dci);
+            dzi = reference.seriesImag(dcr, dci);
+            n = reference.skip;
+        }
+        double x = 0;
+        double y = 0;
+        double glitch = -1;
+        for (; n < maxiterations; n++) {
+            if (n >= length) {
+                glitch = 1;
+                break;
+            }
+            double zr = zReal[n];
+            double zi = zImag[n];
+            x = zr + dzr;
+            y = zi + dzi;
+            double magnitude = x * x + y * y;
+            if (magnitude > EscapeTime.BAILOUT) {
+                break;
+            }
+            double reference2 = zr * zr + zi * zi;
+            if (magnitude < GLITCH_TOLERANCE * reference2) {
+                glitch = magnitude / reference2;
+                break;
+            }
+            double nr = 2 * (zr * dzr - zi * dzi) + (dzr * dzr - dzi * dzi) + dcr;
+            dzi = 2 * (zr * dzi + zi * dzr) + 2 * dzr * dzi + dci;
+            dzr = nr;
+        }
+        if (buffer != null) {
+            buffer.iterations[index] = n;
+            if (glitch >= 0) {
+                buffer.real[index] = IterationBuffer.GLITCHED;
+                buffer.imag[index] = glitch;
+            } else if (n >= maxiterations) {
+                buffer.real[index] = IterationBuffer.ESTIMATED;
+                buffer.imag[index] = IterationBuffer.ESTIMATED;
+            } else {
+                buffer.real[index] = x;
+                buffer.imag[index] = y;
+            }
+        }
+        return n;
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 Kai.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.mandelbrot.render;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+/**
+ * The orbit of a single point computed with BigDecimal and stored as doubles.
+ * The orbits of all other pixels are iterated as small differences to it, see
+ * {@link PerturbationEscapeTime}.
+ * <p>
+ * For the reference of a whole view the first iterations of every pixel are
+ * skipped with a series approximation: the difference dz after n iterations is
+ * approximated by A dc + B dc^2 + C dc^3. The coefficients only depend on the
+ * reference orbit, so they are computed once and n is chosen as large as the
+ * cubic term stays negligible for the largest dc of the view.
+ *
+ * @author Kai
+ */
+public final class PerturbationReference {
+
+    /**
+     * The series approximation is used as long as the cubic term is at most
+     * this fraction of the linear term.
+     */
+    static final double SERIES_TOLERANCE = 1e-12;
+    /**
+     * Allowed relative difference between the series approximation and the
+     * perturbation iteration at the probe points.
+     */
+    static final double PROBE_TOLERANCE = 1e-6;
+
+    /**
+     * Difference of the reference point to the offsets of the view.
+     */
+    final double dcr;
+    final double dci;
+    /**
+     * Real and imaginary parts of the orbit. The last element is the first z
+     * with |z| > 2 if the reference escaped.
+     */
+    final double[] real;
+    final double[] imag;
+    final int length;
+    /**
+     * The reference point and the precision it was iterated with.
+     */
+    final BigDecimal pointReal;
+    final BigDecimal pointImag;
+    final MathContext context;
+
+    /**
+     * Number of iterations which are skipped with the series approximation
+     * and its coefficients.
+     */
+    int skip;
+    double ar;
+    double ai;
+    double br;
+    double bi;
+    double cr;
+    double ci;
+
+    private PerturbationReference(double dcr, double dci, double[] real, double[] imag, int length, BigDecimal pointReal, BigDecimal pointImag, MathContext context) {
+        this.dcr = dcr;
+        this.dci = dci;
+        this.real = real;
+        this.imag = imag;
+        this.length = length;
+        this.pointReal = pointReal;
+        this.pointImag = pointImag;
+        this.context = context;
+    }
+
+    /**
+     * Returns true if the orbit is the orbit at the offsets of the view, so
+     * it can be shared with {@link #copy()}. Bands of one image all have the
+     * same reference.
+     */
+    boolean fits(MandelbrotView view) {
+        return dcr == 0 && dci == 0
+                && real.length == view.maxiterations + 1
+                && context.equals(MandelbrotView.mathContext(view.zoom))
+                && pointReal.compareTo(view.xOffset.add(BigDecimal.ZERO, context)) == 0
+                && pointImag.compareTo(view.yOffset.add(BigDecimal.ZERO, context)) == 0;
+    }
+
+    /**
+     * Returns a reference with the same orbit and without a series
+     * approximation.
+     */
+    PerturbationReference copy() {
+        return new PerturbationReference(dcr, dci, real, imag, length, pointReal, pointImag, context);
+    }
+
+    /**
+     * Computes the orbit of the point of the view which is dcr + dci * i away
+     * from its offsets. Returns null if the job was cancelled meanwhile.
+     */
+    static PerturbationReference compute(RenderJob job, double dcr, double dci) {
+        MandelbrotView view = job.view;
+        MathContext mc = MandelbrotView.mathContext(view.zoom);
+        BigDecimal cr = view.xOffset.add(new BigDecimal(dcr), mc);
+        BigDecimal ci = view.yOffset.add(new BigDecimal(dci), mc);
+        BigDecimal two = BigDecimal.valueOf(2);
+        int max = view.maxiterations;
+        double[] real = new double[max + 1];
+        double[] imag = new double[max + 1];
+        BigDecimal x = BigDecimal.ZERO;
+        BigDecimal y = BigDecimal.ZERO;
+        int n;
+        for (n = 0; n <= max; n++) {
+            if ((n & 0xFF) == 0 && job.isCancelled()) {
+                return null;
+            }
+            double zr = x.doubleValue();
+            double zi = y.doubleValue();
+            real[n] = zr;
+            imag[n] = zi;
+            if (zr * zr + zi * zi > EscapeTime.BAILOUT) {
+                n++;
+                break;
+            }
+            BigDecimal x2 = x.multiply(x, mc).subtract(y.multiply(y, mc), mc).add(cr, mc);
+            y = two.multiply(x, mc).multiply(y, mc).add(ci, mc);
+            x = x2;
+        }
+        return new PerturbationReference(dcr, dci, real, imag, Math.min(n, max + 1), cr, ci, mc);
+    }
+
+    /**
+     * Chooses the number of skipped iterations for pixels which are at most
+     * radius away from the reference and checks it at the probe points,
+     * which are given as pairs of dc values relative to the reference.
+     */
+    void approximateSeries(double radius, double[] probes) {
+        int limit = seriesLimit(radius);
+        while (limit > 0 && !probesMatch(limit, probes)) {
+            limit /= 2;
+        }
+        setSkip(limit);
+    }
+
+    private int seriesLimit(double radius) {
+        double r2 = radius * radius;
+        double aR = 0;
+        double aI = 0;
+        double bR = 0;
+        double bI = 0;
+        double cR = 0;
+        double cI = 0;
+        int n;
+        for (n = 0; n < length - 1; n++) {
+            double zr = real[n];
+            double zi = imag[n];
+            double nAR = 2 * (zr * aR - zi * aI) + 1;
+            double nAI = 2 * (zr * aI + zi * aR);
+            double nBR = 2 * (zr * bR - zi * bI) + (aR * aR - aI * aI);
+            double nBI = 2 * (zr * bI + zi * bR) + 2 * aR * aI;
+            double nCR = 2 * (zr * cR - zi * cI) + 2 * (aR * bR - aI * bI);
+            double nCI = 2 * (zr * cI + zi * cR) + 2 * (aR * bI + aI * bR);
+            double a = Math.hypot(nAR, nAI);
+            double c = Math.hypot(nCR, nCI);
+            if (!Double.isFinite(c) || c * r2 > SERIES_TOLERANCE * a) {
+                break;
+            }
+            aR = nAR;
+            aI = nAI;
+            bR = nBR;
+            bI = nBI;
+            cR = nCR;
+            cI = nCI;
+        }
+        return n;
+    }
+
+    private void setSkip(int n) {
+        ar = 0;
+        ai = 0;
+        br = 0;
+        bi = 0;
+        cr = 0;
+        ci = 0;
+        for (int i = 0; i < n; i++) {
+            double zr = real[i];
+            double zi = imag[i];
+            double nAR = 2 * (zr * ar - zi * ai) + 1;
+            double nAI = 2 * (zr * ai + zi * ar);
+            double nBR = 2 * (zr * br - zi * bi) + (ar * ar - ai * ai);
+            double nBI = 2 * (zr * bi + zi * br) + 2 * ar * ai;
+            double nCR = 2 * (zr * cr - zi * ci) + 2 * (ar * br - ai * bi);
+            double nCI = 2 * (zr * ci + zi * cr) + 2 * (ar * bi + ai * br);
+            ar = nAR;
+            ai = nAI;
+            br = nBR;
+            bi = nBI;
+            cr = nCR;
+            ci = nCI;
+        }
+        skip = n;
+    }
+
+    private boolean probesMatch(int n, double[] probes) {
+        setSkip(n);
+        for (int p = 0; p < probes.length; p += 2) {
+            double dr = probes[p];
+            double di = probes[p + 1];
+            double dzr = 0;
+            double dzi = 0;
+            for (int i = 0; i < n; i++) {
+                double zr = real[i];
+                double zi = imag[i];
+                double nr = 2 * (zr * dzr - zi * dzi) + (dzr * dzr - dzi * dzi) + dr;
+                dzi = 2 * (zr * dzi + zi * dzr) + 2 * dzr * dzi + di;
+                dzr = nr;
+            }
+            double sr = seriesReal(dr, di);
+            double si = seriesImag(dr, di);
+            if (!(Math.hypot(sr - dzr, si - dzi) <= PROBE_TOLERANCE * Math.hypot(dzr, dzi))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Real part of A dc + B dc^2 + C dc^3.
+     */
+    double seriesReal(double dr, double di) {
+        double d2r = dr * dr - di * di;
+        double d2i = 2 * dr * di;
+        double d3r = d2r * dr - d2i * di;
+        double d3i = d2r * di + d2i * dr;
+        return (ar * dr - ai * di) + (br * d2r - bi * d2i) + (cr * d3r - ci * d3i);
+    }
+
+    /**
+     * Imaginary part of A dc + B dc^2 + C dc^3.
+     */
+    double seriesImag(double dr, double di) {
+        double d2r = dr * dr - di * di;
+        double d2i = 2 * dr * di;
+        double d3r = d2r * dr - d2i * di;
+        double d3i = d2r * di + d2i * dr;
+        return (ar * di + ai * dr) + (br * d2i + bi * d2r) + (cr * d3i + ci * d3r);
+    }
+
+    public int getSkip() {
+        return skip;
+    }
+
+    public int getLength() {
+        return length;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 Kai.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.mandelbrot.render;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * Writes RGBA8888 pixels into a byte buffer with the memory layout of an
+ * RGBA8888 image in row order, e.g. the buffer of a libGDX Pixmap. The ints
+ * are packed like the colors of the renderer, 0xRRGGBBAA.
+ * <p>
+ * The writer only uses absolute positions and never allocates, so several
+ * threads can fill disjoint rows or tiles of the same buffer at the same time
+ * without locking.
+ *
+ * @author Kai
+ */
+public final class PixelWriter {
+
+    public final int width;
+    public final int height;
+    private final IntBuffer pixels;
+
+    public PixelWriter(ByteBuffer buffer, int width, int height) {
+        if (buffer.capacity() < width * height * 4) {
+            throw new IllegalArgumentException("buffer too small for " + width + "x" + height + " pixels: " + buffer.capacity());
+        }
+        this.width = width;
+        this.height = height;
+        ByteBuffer view = buffer.duplicate();
+        view.clear();
+        pixels = view.order(ByteOrder.BIG_ENDIAN).asIntBuffer();
+    }
+
+    /**
+     * Copies the tile of the source pixels, which are width pixels wide, to
+     * the same position of the buffer.
+     */
+    public void write(int[] source, Tile tile) {
+        write(source, tile.y * width + tile.x, width, tile.x, tile.y, tile.width, tile.height);
+    }
+
+    /**
+     * Copies a rectangle of w x h source pixels starting at offset with
+     * stride ints per row to x, y of the buffer.
+     */
+    public void write(int[] source, int offset, int stride, int x, int y, int w, int h) {
+        if (x < 0 || y < 0 || w < 0 || h < 0 || x + w > width || y + h > height) {
+            throw new IndexOutOfBoundsException(w + "x" + h + " at " + x + "," + y + " outside of " + width + "x" + height);
+        }
+        IntBuffer pixels = this.pixels;
+        for (int row = 0; row < h; row++) {
+            int from = offset + row * stride;
+            int to = (y + row) * width + x;
+            for (int i = 0; i < w; i++) {
+                pixels.put(to + i, source[from + i]);
+            }
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 Kai.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.mandelbrot.render;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Percentage;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder event of a finished {@link RenderJob}. Its duration is the
+ * wall time of the job from submitting to finishing.
+ *
+ * @author Kai
+ */
+@Name("de.kswmd.mandelbrot.Render")
+@Label("Render")
+@Category("Mandelbrot")
+@Description("A finished render of a view")
+@StackTrace(false)
+final class RenderEvent extends Event {
+
+    @Label("Width")
+    int width;
+    @Label("Height")
+    int height;
+    @Label("Zoom")
+    double zoom;
+    @Label("Maximum Iterations")
+    int maxiterations;
+    @Label("Precision")
+    String precision;
+    @Label("Computed Pixels")
+    long computedPixels;
+    @Label("Cached Tiles")
+    int cachedTiles;
+    @Label("CPU Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long cpuTime;
+    @Label("Total Iterations")
+    long totalIterations;
+    @Label("Mean Iterations")
+    double meanIterations;
+    @Label("Capped Pixels")
+    @Percentage
+    double cappedShare;
+
+    void set(RenderJob job) {
+        MandelbrotView view = job.view;
+        RenderMetrics metrics = job.getMetrics();
+        width = view.width;
+        height = view.height;
+        zoom = view.zoom;
+        maxiterations = view.maxiterations;
+        precision = view.precision.name();
+        computedPixels = job.getComputedPixels();
+        cachedTiles = job.getCachedTiles();
+        cpuTime = metrics.getCpuNanos();
+        totalIterations = metrics.getTotalIterations();
+        meanIterations = metrics.getMeanIterations();
+        cappedShare = metrics.getCappedShare();
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 Kai.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.mandelbrot.render;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A render of one {@link MandelbrotView} into an iteration buffer and the
+ * pixels colored from it. A job can be
+ * cancelled at any time; the render threads stop after the row they are
+ * working on. Every tile whose pixels were written is queued as dirty, so the
+ * result can be uploaded while the job is still running.
+ *
+ * @author Kai
+ */
+public final class RenderJob {
+
+    public final MandelbrotView view;
+    public final IterationBuffer iterations;
+    /**
+     * The colors of the pixels, null for jobs which only compute the
+     * iterations, see {@link MandelbrotRenderer#compute}.
+     */
+    public final int[] pixels;
+    /**
+     * Iterations of the same area with a lower maximum which are continued
+     * or null.
+     */
+    final IterationBuffer source;
+    /**
+     * Whole pixels by which the view is moved against the view of the source
+     * buffer if the job pans it.
+     */
+    int panX;
+    int panY;
+    /**
+     * Pixels which were taken from the source buffer because they lie exactly
+     * on its grid or null.
+     */
+    boolean[] reused;
+    /**
+     * Cache the tiles are looked up in and stored to or null.
+     */
+    TileCache cache;
+    /**
+     * Store on disk the tiles are looked up in after the cache and stored to
+     * or null.
+     */
+    TileStore store;
+    /**
+     * Cache keys of the tiles in the order of {@link Tile#split} and which of
+     * them were loaded from the cache.
+     */
+    TileCache.Key[] cacheKeys;
+    boolean[] cachedTiles;
+    int cachedTileCount;
+    private final boolean computing;
+
+    private final ConcurrentLinkedQueue<Tile> dirtyTiles = new ConcurrentLinkedQueue<>();
+    private final LongAdder computedPixels = new LongAdder();
+    private final LongAdder antiAliasedPixels = new LongAdder();
+    private final RenderMetrics metrics = new RenderMetrics();
+    private final RenderEvent event = new RenderEvent();
+    /**
+     * Reference orbit of the view if it is rendered with perturbation.
+     */
+    PerturbationReference reference;
+    /**
+     * Kernel which iterates whole rows of pixels or null to iterate them one
+     * by one.
+     */
+    BatchEscapeTime batch;
+    /**
+     * Colors of the pixels, whether they are interpolated by the continuous
+     * escape time and whether the palette is equalized for the histogram of
+     * the finished image.
+     */
+    Palette palette;
+    boolean smooth;
+    boolean equalize;
+    /**
+     * Samples per edge pixel of the anti-aliasing or 0.
+     */
+    int samples;
+    private volatile int references;
+    private volatile long glitchedPixels;
+    private volatile boolean cancelled;
+    private final long startTime = System.nanoTime();
+    private volatile long endTime;
+
+    RenderJob(MandelbrotView view, IterationBuffer iterations, int[] pixels, IterationBuffer source, boolean computing) {
+        this.view = view;
+        this.iterations = iterations;
+        this.pixels = pixels;
+        this.source = source;
+        this.computing = computing;
+        event.begin();
+    }
+
+    /**
+     * Returns false if the job only colors iterations which were computed by
+     * another job and therefore never writes to its iteration buffer.
+     */
+    public boolean isComputing() {
+        return computing;
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    void addComputedPixels(long pixels) {
+        computedPixels.add(pixels);
+    }
+
+    /**
+     * Number of pixels whose orbit was iterated by the job.
+     */
+    public long getComputedPixels() {
+        return computedPixels.sum();
+    }
+
+    void addAntiAliasedPixels(long pixels) {
+        antiAliasedPixels.add(pixels);
+    }
+
+    /**
+     * Samples per edge pixel of the anti-aliasing or 0 if the job does not
+     * anti-alias.
+     */
+    public int getAntiAliasingSamples() {
+        return samples;
+    }
+
+    /**
+     * Number of edge pixels which were sampled again by the anti-aliasing.
+     */
+    public long getAntiAliasedPixels() {
+        return antiAliasedPixels.sum();
+    }
+
+    /**
+     * Number of points the anti-aliasing computed in addition to one per
+     * pixel.
+     */
+    public long getExtraSamples() {
+        return antiAliasedPixels.sum() * samples;
+    }
+
+    /**
+     * Extra samples of the anti-aliasing as a share of the extra samples of
+     * supersampling every pixel with the same grid, or 0 if the job does not
+     * anti-alias.
+     */
+    public double getSupersamplingShare() {
+        long full = (long) view.width * view.height * (samples - 1);
+        return samples == 0 ? 0 : (double) getExtraSamples() / full;
+    }
+
+    void addReference(long glitchedPixels) {
+        references++;
+        this.glitchedPixels += glitchedPixels;
+    }
+
+    /**
+     * Number of tiles which were loaded from the tile cache or the tile
+     * store.
+     */
+    public int getCachedTiles() {
+        return cachedTileCount;
+    }
+
+    /**
+     * Number of reference orbits which were computed by the job.
+     */
+    public int getReferences() {
+        return references;
+    }
+
+    /**
+     * Number of pixels which were computed again against another reference
+     * orbit because they were glitched.
+     */
+    public long getGlitchedPixels() {
+        return glitchedPixels;
+    }
+
+    /**
+     * Number of iterations skipped with the series approximation or 0.
+     */
+    public int getSkippedIterations() {
+        PerturbationReference reference = this.reference;
+        return reference == null ? 0 : reference.skip;
+    }
+
+    void markDirty(Tile tile) {
+        dirtyTiles.add(tile);
+    }
+
+    /**
+     * Returns the next tile whose pixels were written since it was polled the
+     * last time or null if there is none.
+     */
+    public Tile pollDirtyTile() {
+        return dirtyTiles.poll();
+    }
+
+    public boolean isFinished() {
+        return endTime != 0;
+    }
+
+    /**
+     * Marks the job as finished, sums up the iterations of its image and
+     * emits its flight recorder event.
+     */
+    void finish() {
+        endTime = System.nanoTime();
+        metrics.summarize(iterations, view.maxiterations);
+        event.end();
+        if (event.shouldCommit()) {
+            event.set(this);
+            event.commit();
+        }
+    }
+
+    public RenderMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Nanoseconds between submitting and finishing the job.
+     */
+    public long getDurationNanos() {
+        return (isFinished() ? endTime : System.nanoTime()) - startTime;
+    }
+
+    /**
+     * Milliseconds between submitting and finishing the job.
+     */
+    public long getDurationMillis() {
+        return getDurationNanos() / 1000000;
+    }
+
+    @Override
+    public String toString() {
+        return "RenderJob{" + view + ", cancelled=" + cancelled + ", finished=" + isFinished() + '}';
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 Kai.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.mandelbrot.render;
+
+/**
+ * Receives the outcome of a {@link RenderJob}. The methods are called on a
+ * render thread, so implementations have to hand the result over to the
+ * thread which needs it.
+ *
+ * @author Kai
+ */
+public interface RenderListener {
+
+    void finished(RenderJob job);
+
+    /**
+     * Called after a coarse pass of a progressive render. The pixel buffer
+     * holds an approximation of the image where each computed pixel fills a
+     * block of step x step pixels. The next pass is already running.
+     */
+    default void progressed(RenderJob job, int step) {
+    }
+
+    /**
+     * Called instead of {@link #finished(RenderJob)} when the job was
+     * cancelled. The pixel buffer is no longer used by the render threads.
+     */
+    default void cancelled(RenderJob job) {
+    }
+
+    default void failed(RenderJob job, Throwable throwable) {
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 Kai.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.mandelbrot.render;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measurements of one {@link RenderJob}: the time and CPU time its tasks took
+ * on each render thread, the time per tile, the time to upload its tiles
+ * into the texture and a summary of the iterations of the finished image.
+ * The render threads add to it concurrently, the summary is only valid after
+ * the job finished.
+ *
+ * @author Kai
+ */
+public final class RenderMetrics {
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    private static final boolean CPU_TIME = THREADS.isCurrentThreadCpuTimeSupported() && THREADS.isThreadCpuTimeEnabled();
+
+    private final LongAdder cpuNanos = new LongAdder();
+    private final LongAdder tileNanos = new LongAdder();
+    private final LongAdder tiles = new LongAdder();
+    private final LongAccumulator maxTileNanos = new LongAccumulator(Math::max, 0);
+    private final ConcurrentHashMap<String, ThreadTime> threads = new ConcurrentHashMap<>();
+    private volatile long uploadNanos;
+    private volatile int uploadedTiles;
+    private volatile long totalIterations;
+    private volatile long cappedPixels;
+    private volatile long nearCapPixels;
+    private volatile long pixels;
+
+    /**
+     * CPU time of the current thread in nanoseconds or 0 if the JVM does not
+     * measure it.
+     */
+    static long cpuTime() {
+        return CPU_TIME ? THREADS.getCurrentThreadCpuTime() : 0;
+    }
+
+    /**
+     * Adds a task which ran on the current thread since the given time and
+     * CPU time. Tasks which computed a tile also count for the tile times.
+     */
+    void addTask(long startNanos, long startCpuNanos, boolean tile) {
+        long nanos = System.nanoTime() - startNanos;
+        long cpu = cpuTime() - startCpuNanos;
+        cpuNanos.add(cpu);
+        if (tile) {
+            tileNanos.add(nanos);
+            tiles.increment();
+            maxTileNanos.accumulate(nanos);
+        }
+        threads.computeIfAbsent(Thread.currentThread().getName(), name -> new ThreadTime()).add(nanos, cpu, tile);
+    }
+
+    /**
+     * Sums up the iterations of the finished image.
+     */
+    void summarize(IterationBuffer buffer, int maxiterations) {
+        long total = 0;
+        long capped = 0;
+        long nearCap = 0;
+        int half = maxiterations / 2;
+        int[] iterations = buffer.iterations;
+        for (int i = 0; i < iterations.length; i++) {
+            int iters = iterations[i];
+            total += iters;
+            if (iters >= maxiterations) {
+                capped++;
+            } else if (iters >= half) {
+                nearCap++;
+            }
+        }
+        totalIterations = total;
+        cappedPixels = capped;
+        nearCapPixels = nearCap;
+        pixels = iterations.length;
+    }
+
+    /**
+     * Adds the time it took to upload tiles of the job into the texture.
+     */
+    public void addUpload(long nanos, int tiles) {
+        uploadNanos += nanos;
+        uploadedTiles += tiles;
+    }
+
+    /**
+     * CPU time of all tasks of the job on the render threads or 0 if the JVM
+     * does not measure it.
+     */
+    public long getCpuNanos() {
+        return cpuNanos.sum();
+    }
+
+    public long getTiles() {
+        return tiles.sum();
+    }
+
+    public double getMeanTileMillis() {
+        long count = tiles.sum();
+        return count == 0 ? 0 : tileNanos.sum() / 1e6 / count;
+    }
+
+    public double getMaxTileMillis() {
+        return maxTileNanos.get() / 1e6;
+    }
+
+    public long getUploadNanos() {
+        return uploadNanos;
+    }
+
+    public int getUploadedTiles() {
+        return uploadedTiles;
+    }
+
+    /**
+     * Sum of the iterations of all pixels of the image, whether they were
+     * computed by the job or not.
+     */
+    public long getTotalIterations() {
+        return totalIterations;
+    }
+
+    public double getMeanIterations() {
+        return pixels == 0 ? 0 : (double) totalIterations / pixels;
+    }
+
+    /**
+     * Share of the pixels which reached the maximum number of iterations.
+     */
+    public double getCappedShare() {
+        return pixels == 0 ? 0 : (double) cappedPixels / pixels;
+    }
+
+    /**
+     * Share of the pixels which escaped with at least half of the maximum
+     * number of iterations. If it is not tiny, a higher maximum would reveal
+     * more details.
+     */
+    public double getNearCapShare() {
+        return pixels == 0 ? 0 : (double) nearCapPixels / pixels;
+    }
+
+    /**
+     * Wall and CPU time of the tasks per render thread in milliseconds and
+     * the number of tiles it computed as {wall, cpu, tiles}, sorted by the
+     * names of the threads.
+     */
+    public Map<String, double[]> getThreadTimes() {
+        Map<String, double[]> times = new TreeMap<>();
+        threads.forEach((name, time) -> times.put(name, time.toArray()));
+        return times;
+    }
+
+    private static final class ThreadTime {
+
+        private long nanos;
+        private long cpuNanos;
+        private long tiles;
+
+        synchronized void add(long nanos, long cpuNanos, boolean tile) {
+            this.nanos += nanos;
+            this.cpuNanos += cpuNanos;
+            if (tile) {
+                tiles++;
+            }
+        }
+
+        synchronized double[] toArray() {
+            return new double[]{nanos / 1e6, cpuNanos / 1e6, tiles};
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 Kai.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.mandelbrot.render;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Appends the metrics of finished renders to a file, one line per render.
+ * Files whose name ends with .csv get comma separated values with a header
+ * line, all others get one JSON object per line (JSON Lines).
+ *
+ * @author Kai
+ */
+public final class RenderMetricsLog implements Closeable {
+
+    static final String CSV_HEADER = "time,width,height,x,y,zoom,maxiterations,precision,wallMillis,cpuMillis,computedPixels,"
+            + "pixelsPerSecond,totalIterations,meanIterations,cappedShare,tiles,meanTileMillis,maxTileMillis,cachedTiles,"
+            + "uploadMillis,antiAliasedPixels,extraSamples,threads";
+
+    private final BufferedWriter writer;
+    private final boolean csv;
+
+    public RenderMetricsLog(Path file) throws IOException {
+        csv = file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".csv");
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        boolean empty = !Files.exists(file) || Files.size(file) == 0;
+        writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        if (csv && empty) {
+            writer.write(CSV_HEADER);
+            writer.newLine();
+            writer.flush();
+        }
+    }
+
+    /**
+     * Appends the metrics of the finished job.
+     */
+    public synchronized void write(RenderJob job) throws IOException {
+        MandelbrotView view = job.view;
+        RenderMetrics metrics = job.getMetrics();
+        double seconds = job.getDurationNanos() / 1e9;
+        Object[] values = {
+            Instant.now().toString(), view.width, view.height, view.xOffset.toString(), view.yOffset.toString(), view.zoom,
+            view.maxiterations, view.precision.name(), job.getDurationNanos() / 1e6, metrics.getCpuNanos() / 1e6,
+            job.getComputedPixels(), seconds > 0 ? job.getComputedPixels() / seconds : 0, metrics.getTotalIterations(),
+            metrics.getMeanIterations(), metrics.getCappedShare(), metrics.getTiles(), metrics.getMeanTileMillis(),
+            metrics.getMaxTileMillis(), job.getCachedTiles(), metrics.getUploadNanos() / 1e6, job.getAntiAliasedPixels(),
+            job.getExtraSamples(), metrics.getThreadTimes()
+        };
+        writer.write(csv ? toCsv(values) : toJson(values));
+        writer.newLine();
+        writer.flush();
+    }
+
+    private static String toCsv(Object[] values) {
+        StringBuilder line = new StringBuilder();
+        for (Object value : values) {
+            if (line.length() > 0) {
+                line.append(',');
+            }
+            if (value instanceof Map) {
+                // name:wall:cpu:tiles of every thread separated by semicolons
+                StringBuilder threads = new StringBuilder();
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                    double[] times = (double[]) entry.getValue();
+                    if (threads.length() > 0) {
+                        threads.append(';');
+                    }
+                    threads.append(entry.getKey()).append(':').append(format(times[0])).append(':')
+                            .append(format(times[1])).append(':').append((long) times[2]);
+                }
+                line.append(threads);
+            } else {
+                line.append(format(value));
+            }
+        }
+        return line.toString();
+    }
+
+    private static String toJson(Object[] values) {
+        String[] names = CSV_HEADER.split(",");
+        StringBuilder line = new StringBuilder("{");
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                line.append(',');
+            }
+            line.append('"').append(names[i]).append("\":");
+            Object value = values[i];
+            if (value instanceof Map) {
+                line.append('{');
+                boolean first = true;
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                    double[] times = (double[]) entry.getValue();
+                    if (!first) {
+                        line.append(',');
+                    }
+                    first = false;
+                    line.append('"').append(entry.getKey()).append("\":{\"wallMillis\":").append(format(times[0]))
+                            .append(",\"cpuMillis\":").append(format(times[1])).append(",\"tiles\":").append((long) times[2]).append('}');
+                }
+                line.append('}');
+            } else if (value instanceof String) {
+                line.append('"').append(value).append('"');
+            } else {
+                line.append(format(value));
+            }
+        }
+        return line.append('}').toString();
+    }
+
+    private static String format(Object value) {
+        if (value instanceof Double) {
+            double number = (Double) value;
+            return Double.isFinite(number) ? String.format(Locale.ROOT, "%.6g", number) : "0";
+        }
+        return String.valueOf(value);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 Kai.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.mandelbrot.render;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Keeps the iterations of recently computed tiles in memory, so going back to
+ * a view which was shown before does not compute it again. Tiles are looked
+ * up by their position on the pixel grid of the zoom, so a view which was
+ * moved away and back by whole pixels finds its tiles as well. Besides the
+ * position the key holds everything which changes the iterations: the size
+ * and zoom of the view, the maximum number of iterations and the precision.
+ * <p>
+ * Every tile keeps the last z of its pixels, so the iterations of a cached
+ * view can be continued with a higher maximum like those of a computed one.
+ * The least recently used tiles are dropped as soon as the cache holds more
+ * than its budget. All methods are thread safe.
+ *
+ * @author Kai
+ */
+public final class TileCache {
+
+    /**
+     * Bytes per pixel of a cached tile: the iterations and the last z.
+     */
+    static final int BYTES_PER_PIXEL = Integer.BYTES + 2 * Double.BYTES;
+    /**
+     * Positions on the pixel grid are rounded to this many decimal places,
+     * see {@link MandelbrotView#PIXEL_TOLERANCE}.
+     */
+    private static final int GRID_SCALE = 3;
+
+    private final LinkedHashMap<Key, Entry> tiles = new LinkedHashMap<>(256, 0.75f, true);
+    private long maxBytes;
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public TileCache(long maxBytes) {
+        setMaxBytes(maxBytes);
+    }
+
+    /**
+     * Sets the memory budget and drops the least recently used tiles until
+     * the cache fits into it. A budget of 0 disables the cache.
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("maxBytes must not be negative: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+        evict();
+    }
+
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Bytes held by the iterations of the cached tiles.
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized int getTiles() {
+        return tiles.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Number of tiles which were dropped to stay within the budget.
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized void clear() {
+        tiles.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Copies the tile of the view from the cache into the buffer. Returns
+     * false and leaves the buffer unchanged if the tile is not cached.
+     */
+    boolean load(Key key, Tile tile, IterationBuffer buffer) {
+        Entry entry;
+        synchronized (this) {
+            entry = tiles.get(key);
+            if (entry == null) {
+                misses++;
+                return false;
+            }
+            hits++;
+        }
+        int width = buffer.width;
+        for (int y = 0; y < tile.height; y++) {
+            int from = y * tile.width;
+            int to = (tile.y + y) * width + tile.x;
+            System.arraycopy(entry.iterations, from, buffer.iterations, to, tile.width);
+            System.arraycopy(entry.real, from, buffer.real, to, tile.width);
+            System.arraycopy(entry.imag, from, buffer.imag, to, tile.width);
+        }
+        return true;
+    }
+
+    /**
+     * Copies the tile from the buffer into the cache.
+     */
+    void store(Key key, Tile tile, IterationBuffer buffer) {
+        long size = (long) tile.width * tile.height * BYTES_PER_PIXEL;
+        if (size > getMaxBytes()) {
+            return;
+        }
+        Entry entry = new Entry(tile.width * tile.height);
+        int width = buffer.width;
+        for (int y = 0; y < tile.height; y++) {
+            int from = (tile.y + y) * width + tile.x;
+            int to = y * tile.width;
+            System.arraycopy(buffer.iterations, from, entry.iterations, to, tile.width);
+            System.arraycopy(buffer.real, from, entry.real, to, tile.width);
+            System.arraycopy(buffer.imag, from, entry.imag, to, tile.width);
+        }
+        synchronized (this) {
+            Entry previous = tiles.put(key, entry);
+            if (previous != null) {
+                bytes -= previous.bytes();
+            }
+            bytes += entry.bytes();
+            evict();
+        }
+    }
+
+    private void evict() {
+        Iterator<Entry> iterator = tiles.values().iterator();
+        while (bytes > maxBytes && iterator.hasNext()) {
+            bytes -= iterator.next().bytes();
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Returns the position of the top left pixel of the view on the pixel
+     * grid of its zoom as {x, y}. Pixel x, y of the view is pixel x + origin
+     * x, y + origin y of the grid.
+     */
+    static BigDecimal[] origin(MandelbrotView view) {
+        MathContext context = new MathContext(MandelbrotView.mathContext(view.zoom).getPrecision() + 10);
+        BigDecimal x = view.xOffset.add(new BigDecimal(view.real(0)))
+                .divide(new BigDecimal(view.pixelWidth()), context);
+        BigDecimal y = view.yOffset.add(new BigDecimal(view.imag(0)))
+                .divide(new BigDecimal(view.pixelHeight()), context);
+        return new BigDecimal[]{x.setScale(GRID_SCALE, RoundingMode.HALF_EVEN), y.setScale(GRID_SCALE, RoundingMode.HALF_EVEN)};
+    }
+
+    /**
+     * Key of a tile of the view whose origin was returned by
+     * {@link #origin(MandelbrotView)}.
+     */
+    static Key key(MandelbrotView view, BigDecimal[] origin, Tile tile) {
+        return new Key(view, origin[0].add(BigDecimal.valueOf(tile.x)), origin[1].add(BigDecimal.valueOf(tile.y)), tile.width, tile.height);
+    }
+
+    static final class Key {
+
+        final int viewWidth;
+        final int viewHeight;
+        final double zoom;
+        final int maxiterations;
+        final MandelbrotView.Precision precision;
+        final BigDecimal x;
+        final BigDecimal y;
+        final int width;
+        final int height;
+
+        Key(MandelbrotView view, BigDecimal x, BigDecimal y, int width, int height) {
+            this(view.width, view.imageHeight, view.zoom, view.maxiterations, view.precision, x, y, width, height);
+        }
+
+        Key(int viewWidth, int viewHeight, double zoom, int maxiterations, MandelbrotView.Precision precision, BigDecimal x, BigDecimal y, int width, int height) {
+            this.viewWidth = viewWidth;
+            this.viewHeight = viewHeight;
+            this.zoom = zoom;
+            this.maxiterations = maxiterations;
+            this.precision = precision;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return viewWidth == key.viewWidth
+                    && viewHeight == key.viewHeight
+                    && Double.compare(zoom, key.zoom) == 0
+                    && maxiterations == key.maxiterations
+                    && precision == key.precision
+                    && width == key.width
+                    && height == key.height
+                    && x.equals(key.x)
+                    && y.equals(key.y);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(viewWidth, viewHeight, zoom, maxiterations, precision, x, y, width, height);
+        }
+    }
+
+    private static final class Entry {
+
+        final int[] iterations;
+        final double[] real;
+        final double[] imag;
+
+        Entry(int pixels) {
+            iterations = new int[pixels];
+            real = new double[pixels];
+            imag = new double[pixels];
+        }
+
+        long bytes() {
+            return (long) iterations.length * BYTES_PER_PIXEL;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "TileCache{" + tiles.size() + " tiles, " + bytes + " of " + maxBytes + " bytes, hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + '}';
+    }
+}
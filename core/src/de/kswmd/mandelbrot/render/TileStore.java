@@ -0,0 +1,620 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2024 Kai.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.kswmd.mandelbrot.render;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps expensive tiles on disk, so they survive the application. The tiles
+ * are appended to segment files of the store directory which are read as
+ * memory mapped files. The key of a tile is the same as in the
+ * {@link TileCache}.
+ * <p>
+ * There is no separate index file which could be corrupted by a crash: every
+ * record holds its key and checksums, and the index is rebuilt in memory by
+ * reading the record headers when the store is opened. A record which was
+ * only partly written is cut off, a record whose pixels do not match their
+ * checksum is dropped when it is read. If the store grows beyond its size
+ * limit, the oldest segment is deleted.
+ * <p>
+ * A tile is stored compactly: the iterations of all pixels followed by the
+ * last z of every pixel, as floats for escaped pixels, which only need it
+ * for coloring, and as doubles for the others, so their orbits can be
+ * continued. Tiles are written by a background thread. Failures of the disk
+ * never fail a render, the tiles are computed instead, see
+ * {@link #getFailure()}.
+ *
+ * @author Kai
+ */
+public final class TileStore implements Closeable {
+
+    /**
+     * Only tiles whose pixels need at least this many iterations in total
+     * are stored by default.
+     */
+    public static final long DEFAULT_MIN_ITERATIONS = 1L << 20;
+    /**
+     * Maximum size of a segment file. The store is evicted segment by
+     * segment, so small stores use smaller segments.
+     */
+    static final long SEGMENT_BYTES = 64L << 20;
+
+    static final int FILE_MAGIC = 0x4D425453;
+    static final int FILE_VERSION = 1;
+    static final int FILE_HEADER_BYTES = 8;
+    static final int RECORD_MAGIC = 0x54494C45;
+    /**
+     * Magic, length of the key, length of the pixels, checksum of the key
+     * and checksum of the pixels.
+     */
+    static final int RECORD_HEADER_BYTES = 20;
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile("tiles-(\\d+)\\.seg");
+
+    private final Path directory;
+    private final long maxBytes;
+    private final long segmentBytes;
+    private final HashMap<TileCache.Key, Location> index = new HashMap<>();
+    /**
+     * Segments from the oldest to the one which is written.
+     */
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "tile-store-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long writes;
+    private boolean closed;
+    private volatile long minIterations = DEFAULT_MIN_ITERATIONS;
+    private volatile IOException failure;
+
+    private TileStore(Path directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.segmentBytes = Math.max(1L << 20, Math.min(SEGMENT_BYTES, maxBytes / 4));
+    }
+
+    /**
+     * Opens the store in the directory, which is created if needed, and
+     * reads the keys of all tiles in it.
+     */
+    public static TileStore open(Path directory, long maxBytes) throws IOException {
+        if (maxBytes <= 0) {
+            throw new IllegalArgumentException("maxBytes must be positive: " + maxBytes);
+        }
+        Files.createDirectories(directory);
+        List<Integer> numbers = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Matcher matcher = SEGMENT_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    numbers.add(Integer.parseInt(matcher.group(1)));
+                }
+            }
+        }
+        numbers.sort(null);
+        TileStore store = new TileStore(directory, maxBytes);
+        try {
+            for (int number : numbers) {
+                store.readSegment(number);
+            }
+            Segment last = store.segments.peekLast();
+            if (last == null || last.size >= store.segmentBytes) {
+                store.segments.add(store.newSegment(last == null ? 0 : last.number + 1));
+            }
+            synchronized (store) {
+                store.evict();
+            }
+        } catch (IOException ex) {
+            store.close();
+            throw ex;
+        }
+        return store;
+    }
+
+    /**
+     * Adds the records of an existing segment to the index. The segment is
+     * truncated after the last complete record.
+     */
+    private void readSegment(int number) throws IOException {
+        Path path = segmentPath(number);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+        header.limit(FILE_HEADER_BYTES);
+        if (!readFully(channel, header, 0) || header.getInt(0) != FILE_MAGIC || header.getInt(4) != FILE_VERSION) {
+            channel.close();
+            Files.delete(path);
+            return;
+        }
+        Segment segment = new Segment(number, path, channel);
+        long position = FILE_HEADER_BYTES;
+        CRC32 crc = new CRC32();
+        while (true) {
+            header.clear();
+            if (!readFully(channel, header, position) || header.getInt(0) != RECORD_MAGIC) {
+                break;
+            }
+            int keyLength = header.getInt(4);
+            int payloadLength = header.getInt(8);
+            long end = position + RECORD_HEADER_BYTES + (long) keyLength + payloadLength;
+            if (keyLength <= 0 || payloadLength < 0 || end > size) {
+                break;
+            }
+            ByteBuffer key = ByteBuffer.allocate(keyLength);
+            readFully(channel, key, position + RECORD_HEADER_BYTES);
+            crc.reset();
+            crc.update(key.array());
+            if ((int) crc.getValue() != header.getInt(12)) {
+                break;
+            }
+            TileCache.Key tileKey;
+            try {
+                tileKey = decodeKey(key.array());
+            } catch (IOException ex) {
+                break;
+            }
+            index.put(tileKey, new Location(segment, position + RECORD_HEADER_BYTES + keyLength, payloadLength, header.getInt(16)));
+            position = end;
+        }
+        if (position < size) {
+            channel.truncate(position);
+        }
+        segment.size = position;
+        bytes += position;
+        segments.add(segment);
+    }
+
+    private Segment newSegment(int number) throws IOException {
+        Path path = segmentPath(number);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_BYTES);
+        header.putInt(FILE_MAGIC).putInt(FILE_VERSION).flip();
+        writeFully(channel, header, 0);
+        Segment segment = new Segment(number, path, channel);
+        segment.size = FILE_HEADER_BYTES;
+        bytes += FILE_HEADER_BYTES;
+        return segment;
+    }
+
+    private Path segmentPath(int number) {
+        return directory.resolve("tiles-" + number + ".seg");
+    }
+
+    /**
+     * Sets the total number of iterations of the pixels a tile needs at
+     * least to be stored.
+     */
+    public void setMinIterations(long minIterations) {
+        this.minIterations = minIterations;
+    }
+
+    public long getMinIterations() {
+        return minIterations;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Size of all segment files including tiles which were stored again.
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized int getTiles() {
+        return index.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getWrites() {
+        return writes;
+    }
+
+    /**
+     * Returns the last error of the disk or null. Tiles which could not be
+     * read are computed, tiles which could not be written are lost.
+     */
+    public IOException getFailure() {
+        return failure;
+    }
+
+    /**
+     * Copies the tile from the store into the buffer. Returns false and
+     * leaves the buffer unchanged if the tile is not stored or cannot be
+     * read.
+     */
+    boolean load(TileCache.Key key, Tile tile, IterationBuffer buffer) {
+        Location location;
+        synchronized (this) {
+            location = closed ? null : index.get(key);
+            if (location == null) {
+                misses++;
+                return false;
+            }
+        }
+        ByteBuffer data;
+        try {
+            data = location.segment.map(location.offset + location.length);
+        } catch (IOException ex) {
+            failure = ex;
+            return miss(key, location);
+        }
+        if (data == null) {
+            // The segment was evicted since the tile was looked up.
+            return miss(key, location);
+        }
+        data.position((int) location.offset).limit((int) (location.offset + location.length));
+        CRC32 crc = new CRC32();
+        crc.update(data.duplicate());
+        if ((int) crc.getValue() != location.crc || !decode(data, key.maxiterations, tile, buffer)) {
+            return miss(key, location);
+        }
+        synchronized (this) {
+            hits++;
+        }
+        return true;
+    }
+
+    /**
+     * Drops a tile which could not be read from the index.
+     */
+    private synchronized boolean miss(TileCache.Key key, Location location) {
+        index.remove(key, location);
+        misses++;
+        return false;
+    }
+
+    /**
+     * Writes the tile in the background if it is expensive enough.
+     */
+    void store(TileCache.Key key, Tile tile, IterationBuffer buffer) {
+        long iterations = 0;
+        for (int y = tile.y; y < tile.y + tile.height; y++) {
+            int row = y * buffer.width;
+            for (int x = tile.x; x < tile.x + tile.width; x++) {
+                iterations += buffer.iterations[row + x];
+            }
+        }
+        if (iterations < minIterations) {
+            return;
+        }
+        byte[] keyBytes = encodeKey(key);
+        ByteBuffer payload = encode(key.maxiterations, tile, buffer);
+        try {
+            writer.execute(() -> append(key, keyBytes, payload));
+        } catch (RuntimeException ex) {
+            // the store was closed
+        }
+    }
+
+    private synchronized void append(TileCache.Key key, byte[] keyBytes, ByteBuffer payload) {
+        if (closed) {
+            return;
+        }
+        try {
+            long length = RECORD_HEADER_BYTES + (long) keyBytes.length + payload.remaining();
+            Segment segment = segments.getLast();
+            if (segment.size > FILE_HEADER_BYTES && segment.size + length > segmentBytes) {
+                segment = newSegment(segment.number + 1);
+                segments.add(segment);
+            }
+            CRC32 crc = new CRC32();
+            crc.update(keyBytes);
+            int keyCrc = (int) crc.getValue();
+            crc.reset();
+            crc.update(payload.duplicate());
+            ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_BYTES + keyBytes.length);
+            record.putInt(RECORD_MAGIC).putInt(keyBytes.length).putInt(payload.remaining())
+                    .putInt(keyCrc).putInt((int) crc.getValue()).put(keyBytes).flip();
+            long position = segment.size;
+            int payloadLength = payload.remaining();
+            writeFully(segment.channel, record, position);
+            writeFully(segment.channel, payload, position + RECORD_HEADER_BYTES + keyBytes.length);
+            segment.size += length;
+            bytes += length;
+            writes++;
+            index.put(key, new Location(segment, position + RECORD_HEADER_BYTES + keyBytes.length, payloadLength, (int) crc.getValue()));
+            evict();
+        } catch (IOException ex) {
+            failure = ex;
+        }
+    }
+
+    /**
+     * Fills the buffer from the position of the file. Returns false if the
+     * file ends before.
+     */
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                return false;
+            }
+            position += read;
+        }
+        return true;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Deletes the oldest segments until the store fits into its size limit.
+     * The segment which is written is never deleted.
+     */
+    private void evict() {
+        while (bytes > maxBytes && segments.size() > 1) {
+            Segment oldest = segments.removeFirst();
+            index.values().removeIf(location -> location.segment == oldest);
+            bytes -= oldest.size;
+            try {
+                oldest.close();
+                Files.delete(oldest.path);
+            } catch (IOException ex) {
+                failure = ex;
+            }
+        }
+    }
+
+    /**
+     * Waits for the pending writes and closes the segment files.
+     */
+    @Override
+    public void close() throws IOException {
+        writer.shutdown();
+        try {
+            writer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        IOException exception = null;
+        synchronized (this) {
+            closed = true;
+            for (Segment segment : segments) {
+                try {
+                    segment.close();
+                } catch (IOException ex) {
+                    exception = ex;
+                }
+            }
+        }
+        if (exception != null) {
+            throw exception;
+        }
+    }
+
+    static ByteBuffer encode(int maxiterations, Tile tile, IterationBuffer buffer) {
+        int width = buffer.width;
+        int escaped = 0;
+        for (int y = tile.y; y < tile.y + tile.height; y++) {
+            for (int x = tile.x; x < tile.x + tile.width; x++) {
+                if (buffer.iterations[y * width + x] < maxiterations) {
+                    escaped++;
+                }
+            }
+        }
+        int pixels = tile.width * tile.height;
+        ByteBuffer data = ByteBuffer.allocate(pixels * Integer.BYTES + escaped * 2 * Float.BYTES + (pixels - escaped) * 2 * Double.BYTES);
+        for (int y = tile.y; y < tile.y + tile.height; y++) {
+            for (int x = tile.x; x < tile.x + tile.width; x++) {
+                data.putInt(buffer.iterations[y * width + x]);
+            }
+        }
+        for (int y = tile.y; y < tile.y + tile.height; y++) {
+            for (int x = tile.x; x < tile.x + tile.width; x++) {
+                int index = y * width + x;
+                if (buffer.iterations[index] < maxiterations) {
+                    data.putFloat((float) buffer.real[index]).putFloat((float) buffer.imag[index]);
+                } else {
+                    data.putDouble(buffer.real[index]).putDouble(buffer.imag[index]);
+                }
+            }
+        }
+        return data.flip();
+    }
+
+    /**
+     * Reads a tile written by {@link #encode} into the buffer. Returns false
+     * if the data does not fit the tile.
+     */
+    static boolean decode(ByteBuffer data, int maxiterations, Tile tile, IterationBuffer buffer) {
+        int width = buffer.width;
+        int pixels = tile.width * tile.height;
+        if (data.remaining() < pixels * Integer.BYTES) {
+            return false;
+        }
+        int zStart = data.position() + pixels * Integer.BYTES;
+        long zLength = 0;
+        for (int i = 0; i < pixels; i++) {
+            zLength += data.getInt(data.position() + i * Integer.BYTES) < maxiterations ? 2 * Float.BYTES : 2 * Double.BYTES;
+        }
+        if (zStart + zLength != data.limit()) {
+            return false;
+        }
+        for (int y = tile.y; y < tile.y + tile.height; y++) {
+            for (int x = tile.x; x < tile.x + tile.width; x++) {
+                buffer.iterations[y * width + x] = data.getInt();
+            }
+        }
+        for (int y = tile.y; y < tile.y + tile.height; y++) {
+            for (int x = tile.x; x < tile.x + tile.width; x++) {
+                int index = y * width + x;
+                if (buffer.iterations[index] < maxiterations) {
+                    buffer.real[index] = data.getFloat();
+                    buffer.imag[index] = data.getFloat();
+                } else {
+                    buffer.real[index] = data.getDouble();
+                    buffer.imag[index] = data.getDouble();
+                }
+            }
+        }
+        return true;
+    }
+
+    static byte[] encodeKey(TileCache.Key key) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(96);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(key.viewWidth);
+            out.writeInt(key.viewHeight);
+            out.writeDouble(key.zoom);
+            out.writeInt(key.maxiterations);
+            out.writeByte(key.precision.ordinal());
+            out.writeUTF(key.x.toString());
+            out.writeUTF(key.y.toString());
+            out.writeInt(key.width);
+            out.writeInt(key.height);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return bytes.toByteArray();
+    }
+
+    static TileCache.Key decodeKey(byte[] bytes) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            int viewWidth = in.readInt();
+            int viewHeight = in.readInt();
+            double zoom = in.readDouble();
+            int maxiterations = in.readInt();
+            int precision = in.readByte();
+            if (precision < 0 || precision >= MandelbrotView.Precision.values().length) {
+                throw new IOException("unknown precision " + precision);
+            }
+            BigDecimal x;
+            BigDecimal y;
+            try {
+                x = new BigDecimal(in.readUTF());
+                y = new BigDecimal(in.readUTF());
+            } catch (NumberFormatException ex) {
+                throw new IOException(ex);
+            }
+            return new TileCache.Key(viewWidth, viewHeight, zoom, maxiterations, MandelbrotView.Precision.values()[precision],
+                    x, y, in.readInt(), in.readInt());
+        }
+    }
+
+    private static final class Segment {
+
+        final int number;
+        final Path path;
+        final FileChannel channel;
+        /**
+         * Bytes which were written completely. Only changed by the writer
+         * while it holds the lock of the store.
+         */
+        volatile long size;
+        private MappedByteBuffer mapped;
+        private boolean closed;
+
+        Segment(int number, Path path, FileChannel channel) {
+            this.number = number;
+            this.path = path;
+            this.channel = channel;
+        }
+
+        /**
+         * Returns a view of the mapped file which covers at least end bytes,
+         * or null if the segment was closed. The file is mapped again when it
+         * has grown past the old mapping.
+         */
+        synchronized ByteBuffer map(long end) throws IOException {
+            if (closed) {
+                return null;
+            }
+            if (mapped == null || mapped.capacity() < end) {
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            }
+            return mapped.duplicate();
+        }
+
+        /**
+         * Closes the file. Mappings which were returned before stay valid.
+         */
+        synchronized void close() throws IOException {
+            closed = true;
+            channel.close();
+        }
+    }
+
+    private static final class Location {
+
+        final Segment segment;
+        final long offset;
+        final int length;
+        final int crc;
+
+        Location(Segment segment, long offset, int length, int crc) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+            this.crc = crc;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "TileStore{" + directory + ", " + index.size() + " tiles, " + bytes + " of " + maxBytes + " bytes, hits=" + hits + ", misses=" + misses + ", writes=" + writes + '}';
+    }
+}